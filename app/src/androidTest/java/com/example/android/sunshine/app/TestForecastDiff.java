@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.MatrixCursor;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+import android.widget.AbsListView;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+
+/*
+    Checks the item-level changes ForecastDiff finds between two loads by replaying them, and
+    reports how many rows a typical sync rebinds, and how long that frame takes, compared with
+    rebinding the whole list.
+ */
+public class TestForecastDiff extends InstrumentationTestCase {
+
+    public static final String LOG_TAG = TestForecastDiff.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final int DAYS = 14;
+    private static final int WIDTH = 720;
+    private static final int HEIGHT = 1280;
+
+    private Context mContext;
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = new ContextThemeWrapper(getInstrumentation().getTargetContext(),
+                R.style.AppTheme_Main);
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+    }
+
+    // Days firstDay until firstDay + count, with the given highs by day
+    private ForecastRow[] createRows(int firstDay, int count, double[] highs) {
+        MatrixCursor cursor = new MatrixCursor(ForecastFragment.FORECAST_COLUMNS);
+        for (int day = firstDay; day < firstDay + count; day++) {
+            cursor.addRow(new Object[] {
+                    day, mToday + day * DAY_IN_MILLIS, "Clear", highs[day + 1], 5.0, "94043",
+                    800, 37.4, -122.1
+            });
+        }
+        return ForecastRow.fromCursor(mContext, cursor);
+    }
+
+    private static double[] createHighs() {
+        // From yesterday to a day past the forecast
+        double[] highs = new double[DAYS + 2];
+        for (int i = 0; i < highs.length; i++) {
+            highs[i] = 20 + i;
+        }
+        return highs;
+    }
+
+    // Applies the diff to the old rows, leaving null where a row has to be bound, and checks
+    // the result lines up with the new rows
+    private static int replay(ForecastDiff diff, ForecastRow[] from, ForecastRow[] to) {
+        ArrayList<ForecastRow> list = new ArrayList<ForecastRow>();
+        for (ForecastRow row : from) {
+            list.add(row);
+        }
+        for (int op = 0; op < diff.getOpCount(); op++) {
+            int position = diff.getPosition(op);
+            for (int i = 0; i < diff.getCount(op); i++) {
+                switch (diff.getKind(op)) {
+                    case ForecastDiff.INSERT:
+                        list.add(position + i, null);
+                        break;
+                    case ForecastDiff.REMOVE:
+                        list.remove(position);
+                        break;
+                    default:
+                        list.set(position + i, null);
+                }
+            }
+        }
+        assertEquals(to.length, list.size());
+        int rebound = 0;
+        for (int i = 0; i < to.length; i++) {
+            ForecastRow row = list.get(i);
+            if (row == null) {
+                rebound++;
+            } else {
+                assertEquals(to[i].mDate, row.mDate);
+                assertTrue("Error: a changed row wasn't rebound", row.sameContent(to[i]));
+            }
+        }
+        return rebound;
+    }
+
+    public void testUnchangedLoad() {
+        double[] highs = createHighs();
+        ForecastDiff diff = ForecastDiff.compute(createRows(0, DAYS, highs),
+                createRows(0, DAYS, highs));
+        assertEquals(0, diff.getOpCount());
+        assertFalse(diff.isFirstRowReplaced());
+    }
+
+    public void testTypicalSync() {
+        double[] highs = createHighs();
+        ForecastRow[] before = createRows(-1, DAYS, highs);
+        highs[3] += 2;
+        highs[6] -= 1.5;
+        // Yesterday is gone, two days changed and a new day was added at the end
+        ForecastRow[] after = createRows(0, DAYS, highs);
+
+        ForecastDiff diff = ForecastDiff.compute(before, after);
+        assertEquals(4, diff.getOpCount());
+        assertEquals(ForecastDiff.REMOVE, diff.getKind(0));
+        assertEquals(0, diff.getPosition(0));
+        assertEquals(ForecastDiff.CHANGE, diff.getKind(1));
+        assertEquals(2, diff.getPosition(1));
+        assertEquals(ForecastDiff.CHANGE, diff.getKind(2));
+        assertEquals(5, diff.getPosition(2));
+        assertEquals(ForecastDiff.INSERT, diff.getKind(3));
+        assertEquals(DAYS - 1, diff.getPosition(3));
+        assertTrue("Error: the new first row needs the today layout", diff.isFirstRowReplaced());
+        assertEquals(3, replay(diff, before, after));
+    }
+
+    public void testRangesAreMerged() {
+        double[] highs = createHighs();
+        ForecastRow[] before = createRows(0, 4, highs);
+        for (int i = 0; i < highs.length; i++) {
+            highs[i] += 10;
+        }
+        ForecastRow[] after = createRows(0, DAYS, highs);
+
+        ForecastDiff diff = ForecastDiff.compute(before, after);
+        assertEquals(2, diff.getOpCount());
+        assertEquals(ForecastDiff.CHANGE, diff.getKind(0));
+        assertEquals(4, diff.getCount(0));
+        assertEquals(ForecastDiff.INSERT, diff.getKind(1));
+        assertEquals(DAYS - 4, diff.getCount(1));
+        assertEquals(DAYS, replay(diff, before, after));
+
+        diff = ForecastDiff.compute(after, before);
+        assertEquals(ForecastDiff.REMOVE, diff.getKind(1));
+        assertEquals(4, diff.getPosition(1));
+        assertEquals(DAYS - 4, diff.getCount(1));
+        assertEquals(4, replay(diff, after, before));
+    }
+
+    private static void layout(RecyclerView recyclerView) {
+        recyclerView.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        recyclerView.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    private ForecastAdapter createList(RecyclerView recyclerView) {
+        recyclerView.setLayoutManager(new LinearLayoutManager(mContext));
+        ForecastAdapter adapter = new ForecastAdapter(mContext,
+                new ForecastAdapter.ForecastAdapterOnClickHandler() {
+                    @Override
+                    public void onClick(Long date, ForecastAdapter.ForecastAdapterViewHolder vh) {
+                    }
+                }, new View(mContext), AbsListView.CHOICE_MODE_NONE);
+        recyclerView.setAdapter(adapter);
+        return adapter;
+    }
+
+    // Shows before, then swaps in after and returns the binds and nanoseconds of the next frame
+    private long[] syncFrame(ForecastRow[] before, ForecastRow[] after, boolean diffed) {
+        RecyclerView recyclerView = new RecyclerView(mContext);
+        ForecastAdapter adapter = createList(recyclerView);
+        adapter.swapCursor(new ForecastLoader.ForecastCursor(new MatrixCursor(new String[0]),
+                before, null));
+        layout(recyclerView);
+
+        ForecastDiff diff = diffed ? ForecastDiff.compute(before, after) : null;
+        ForecastLoader.ForecastCursor data = new ForecastLoader.ForecastCursor(
+                new MatrixCursor(new String[0]), after, diff);
+        int binds = adapter.getBindCount();
+        long start = System.nanoTime();
+        adapter.swapCursor(data);
+        layout(recyclerView);
+        long frame = System.nanoTime() - start;
+        return new long[] { adapter.getBindCount() - binds, frame };
+    }
+
+    public void testTypicalSyncRebindsChangedRows() {
+        double[] highs = createHighs();
+        final ForecastRow[] before = createRows(0, DAYS, highs);
+        highs[2] += 3;
+        highs[5] += 1;
+        highs[7] -= 2;
+        final ForecastRow[] after = createRows(0, DAYS, highs);
+
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                long[] diffed = null;
+                long[] full = null;
+                // The first run warms up both
+                for (int run = 0; run < 2; run++) {
+                    diffed = syncFrame(before, after, true);
+                    full = syncFrame(before, after, false);
+                }
+                Log.i(LOG_TAG, "Sync changing 3 of " + DAYS + " days: diff rebinds " +
+                        diffed[0] + " rows in a " + diffed[1] / 1000 + " us frame, full " +
+                        "reload rebinds " + full[0] + " rows in a " + full[1] / 1000 +
+                        " us frame");
+                assertTrue("Error: the diff should rebind fewer rows than a full reload",
+                        diffed[0] < full[0]);
+            }
+        });
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.MatrixCursor;
+import android.os.SystemClock;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+import android.widget.AbsListView;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.Arrays;
+
+/*
+    Scrolls the forecast list through a year of rows, the way a fling does, and times each frame
+    from the scroll to the end of the layout pass that binds the new rows.  Also checks that the
+    bound views show what the rows were formatted with.
+ */
+public class TestForecastScroll extends InstrumentationTestCase {
+
+    public static final String LOG_TAG = TestForecastScroll.class.getSimpleName();
+
+    private static final int DAYS = 365;
+    private static final int WIDTH = 720;
+    private static final int HEIGHT = 1280;
+    private static final int SCROLL_PER_FRAME = 60;
+    private static final long FRAME_MILLIS = 16;
+
+    private static final int[] CONDITIONS = { 200, 301, 500, 511, 600, 701, 800, 801, 803, 900 };
+
+    private Context mContext;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = new ContextThemeWrapper(getInstrumentation().getTargetContext(),
+                R.style.AppTheme_Main);
+    }
+
+    private static MatrixCursor createForecast() {
+        MatrixCursor cursor = new MatrixCursor(ForecastFragment.FORECAST_COLUMNS);
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        for (int i = 0; i < DAYS; i++) {
+            cursor.addRow(new Object[] {
+                    i,
+                    today + i * 24L * 60 * 60 * 1000,
+                    "Clear",
+                    20 + (i % 15) * 0.7,
+                    5 - (i % 11) * 0.9,
+                    "94043",
+                    CONDITIONS[i % CONDITIONS.length],
+                    37.4,
+                    -122.1
+            });
+        }
+        return cursor;
+    }
+
+    private static void layout(RecyclerView recyclerView) {
+        recyclerView.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        recyclerView.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    private void checkBoundRows(RecyclerView recyclerView, ForecastRow[] rows) {
+        for (int i = 0; i < recyclerView.getChildCount(); i++) {
+            ForecastAdapter.ForecastAdapterViewHolder holder =
+                    (ForecastAdapter.ForecastAdapterViewHolder)
+                            recyclerView.getChildViewHolder(recyclerView.getChildAt(i));
+            ForecastRow row = rows[holder.getAdapterPosition()];
+            assertEquals(row.mHigh, holder.mHighTempView.getText().toString());
+            assertEquals(row.mLow, holder.mLowTempView.getText().toString());
+            assertEquals(row.mDescription, holder.mDescriptionView.getText().toString());
+            assertEquals(row.mHighA11y, holder.mHighTempView.getContentDescription());
+        }
+    }
+
+    public void testScrollFrameTimes() {
+        MatrixCursor cursor = createForecast();
+        long start = SystemClock.elapsedRealtime();
+        final ForecastRow[] rows = ForecastRow.fromCursor(mContext, cursor);
+        Log.i(LOG_TAG, "Formatted " + DAYS + " rows in the loader in " +
+                (SystemClock.elapsedRealtime() - start) + " ms");
+        final ForecastLoader.ForecastCursor data = new ForecastLoader.ForecastCursor(cursor, rows,
+                null);
+
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                RecyclerView recyclerView = new RecyclerView(mContext);
+                recyclerView.setLayoutManager(new LinearLayoutManager(mContext));
+                ForecastAdapter adapter = new ForecastAdapter(mContext,
+                        new ForecastAdapter.ForecastAdapterOnClickHandler() {
+                            @Override
+                            public void onClick(Long date,
+                                                ForecastAdapter.ForecastAdapterViewHolder vh) {
+                            }
+                        }, new View(mContext), AbsListView.CHOICE_MODE_NONE);
+                recyclerView.setAdapter(adapter);
+                adapter.swapCursor(data);
+                layout(recyclerView);
+                checkBoundRows(recyclerView, rows);
+
+                // Warm up the view pool and the code paths, then scroll back to the top
+                for (int run = 0; run < 2; run++) {
+                    for (int i = 0; i < 50; i++) {
+                        recyclerView.scrollBy(0, SCROLL_PER_FRAME);
+                        layout(recyclerView);
+                    }
+                    recyclerView.scrollToPosition(0);
+                    layout(recyclerView);
+                }
+
+                long[] frames = new long[4000];
+                int count = 0;
+                LinearLayoutManager layoutManager =
+                        (LinearLayoutManager) recyclerView.getLayoutManager();
+                while (count < frames.length
+                        && layoutManager.findLastVisibleItemPosition() < DAYS - 1) {
+                    long frameStart = System.nanoTime();
+                    recyclerView.scrollBy(0, SCROLL_PER_FRAME);
+                    layout(recyclerView);
+                    frames[count++] = System.nanoTime() - frameStart;
+                }
+                checkBoundRows(recyclerView, rows);
+
+                long[] sorted = Arrays.copyOf(frames, count);
+                Arrays.sort(sorted);
+                int janky = 0;
+                for (long frame : sorted) {
+                    if (frame > FRAME_MILLIS * 1000000) {
+                        janky++;
+                    }
+                }
+                Log.i(LOG_TAG, "Scrolled " + DAYS + " rows in " + count + " frames: median " +
+                        sorted[count / 2] / 1000 + " us, 90th " +
+                        sorted[count * 9 / 10] / 1000 + " us, 99th " +
+                        sorted[count * 99 / 100] / 1000 + " us, max " +
+                        sorted[count - 1] / 1000 + " us, " + janky + " over " + FRAME_MILLIS +
+                        " ms");
+                assertTrue("Error: the scroll should reach the end of the forecast",
+                        layoutManager.findLastVisibleItemPosition() == DAYS - 1);
+            }
+        });
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.database.MatrixCursor;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.EpochDays;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+
+/*
+    Checks the kept temperatures and day labels against formatting them directly, including the
+    roundings and days at the edges of the tables, and that a locale change drops them.  Also
+    reports the allocations of loading the forecast list and refreshing the widget.
+ */
+public class TestFormattedStrings extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestFormattedStrings.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final int DAYS = 14;
+
+    private Locale mDefaultLocale;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDefaultLocale = Locale.getDefault();
+        FormattedStrings.invalidate();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Locale.setDefault(mDefaultLocale);
+        FormattedStrings.invalidate();
+        super.tearDown();
+    }
+
+    private String formatDirectly(double degrees) {
+        return String.format(mContext.getString(R.string.format_temperature), degrees);
+    }
+
+    private void checkTemperature(double degrees) {
+        String expected = formatDirectly(degrees);
+        // Once to fill the slot, then from the table
+        assertEquals("Error: wrong string for " + degrees, expected,
+                FormattedStrings.getTemperature(mContext, degrees));
+        assertEquals("Error: wrong kept string for " + degrees, expected,
+                FormattedStrings.getTemperature(mContext, degrees));
+    }
+
+    public void testTemperaturesMatchFormatter() {
+        for (int i = -4000; i <= 4000; i++) {
+            checkTemperature(i * 0.05);
+            checkTemperature(i * 0.05 + 0.0001);
+        }
+        double[] edges = {
+                -0.0, -0.4, -0.49, -0.5, -0.51, 0.5, 1.5, 2.5, -2.5, 0.49999999999999994,
+                149.6, 150.4, 150.5, -150.6, 1e9, Double.NaN, Double.POSITIVE_INFINITY
+        };
+        for (double degrees : edges) {
+            checkTemperature(degrees);
+        }
+        // What the list shows for a Fahrenheit reading just below zero
+        checkTemperature((-17.9 * 1.8) + 32);
+    }
+
+    private String referenceDayName(long dateInMillis, int epochDay, int today) {
+        if (epochDay == today) {
+            return mContext.getString(R.string.today);
+        } else if (epochDay == today + 1) {
+            return mContext.getString(R.string.tomorrow);
+        }
+        return format("EEEE", dateInMillis);
+    }
+
+    private static String format(String pattern, long dateInMillis) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.getDefault());
+        format.setTimeZone(EpochDays.getZone());
+        return format.format(dateInMillis);
+    }
+
+    public void testDayLabelsMatchFormats() {
+        int today = EpochDays.today();
+        // Past both ends of the window of kept days, twice so the second pass reads the table
+        for (int pass = 0; pass < 2; pass++) {
+            for (int epochDay = today - 20; epochDay <= today + 80; epochDay++) {
+                long date = EpochDays.startOfEpochDay(epochDay) + DAY_IN_MILLIS / 3;
+                String dayName = referenceDayName(date, epochDay, today);
+                String monthDay = format("MMMM dd", date);
+                String friendly = epochDay < today + 7 ? dayName : format("EEE MMM dd", date);
+                String longToday = epochDay == today
+                        ? mContext.getString(R.string.format_full_friendly_date,
+                                mContext.getString(R.string.today), monthDay)
+                        : friendly;
+
+                assertEquals(dayName, Utility.getDayName(mContext, date));
+                assertEquals(monthDay, Utility.getFormattedMonthDay(mContext, date));
+                assertEquals(friendly, Utility.getFriendlyDayString(mContext, date, false));
+                assertEquals(longToday, Utility.getFriendlyDayString(mContext, date, true));
+                assertEquals(mContext.getString(R.string.format_full_friendly_date, dayName,
+                        monthDay), Utility.getFullFriendlyDayString(mContext, date));
+            }
+        }
+    }
+
+    public void testLocaleChangeDropsLabels() {
+        long date = EpochDays.startOfEpochDay(EpochDays.today() + 3);
+        Locale.setDefault(Locale.US);
+        assertEquals(format("EEEE", date), Utility.getDayName(mContext, date));
+        assertEquals(format("EEE MMM dd", date + 7 * DAY_IN_MILLIS),
+                Utility.getFriendlyDayString(mContext, date + 7 * DAY_IN_MILLIS, false));
+
+        Locale.setDefault(Locale.FRANCE);
+        assertEquals(format("EEEE", date), Utility.getDayName(mContext, date));
+        assertEquals(format("EEE MMM dd", date + 7 * DAY_IN_MILLIS),
+                Utility.getFriendlyDayString(mContext, date + 7 * DAY_IN_MILLIS, false));
+
+        // A kept label is the same string every time, until the tables are dropped
+        String kept = Utility.getDayName(mContext, date);
+        assertSame(kept, Utility.getDayName(mContext, date));
+        FormattedStrings.invalidate();
+        String formatted = Utility.getDayName(mContext, date);
+        assertEquals(kept, formatted);
+        assertNotSame(kept, formatted);
+    }
+
+    private MatrixCursor createForecast() {
+        MatrixCursor cursor = new MatrixCursor(ForecastFragment.FORECAST_COLUMNS);
+        long today = EpochDays.startOfEpochDay(EpochDays.today());
+        for (int i = 0; i < DAYS; i++) {
+            cursor.addRow(new Object[] {
+                    i, today + i * DAY_IN_MILLIS, "Clear", 20 + (i % 5) * 0.7,
+                    8 - (i % 4) * 0.9, "94043", 800, 37.4, -122.1
+            });
+        }
+        return cursor;
+    }
+
+    // What DetailWidgetRemoteViewsService formats for each day
+    private void refreshWidget(MatrixCursor cursor) {
+        for (int i = 0; i < cursor.getCount(); i++) {
+            cursor.moveToPosition(i);
+            Utility.getFriendlyDayString(mContext,
+                    cursor.getLong(ForecastFragment.COL_WEATHER_DATE), false);
+            Utility.formatTemperature(mContext,
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP));
+            Utility.formatTemperature(mContext,
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP));
+        }
+    }
+
+    private static long[] countAllocations(Runnable runnable) {
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        try {
+            runnable.run();
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        return new long[] { Debug.getThreadAllocCount(), Debug.getThreadAllocSize() };
+    }
+
+    private void report(String name, Runnable runnable) {
+        // Warm up everything but the strings
+        runnable.run();
+        FormattedStrings.invalidate();
+        long[] cold = countAllocations(runnable);
+        long[] warm = countAllocations(runnable);
+        Log.i(LOG_TAG, name + ": " + cold[0] + " allocations (" + cold[1] + " bytes) with " +
+                "nothing kept, " + warm[0] + " allocations (" + warm[1] + " bytes) after");
+        assertTrue("Error: kept strings should allocate less", warm[0] < cold[0]);
+    }
+
+    public void testListLoadAndWidgetRefresh() {
+        final MatrixCursor cursor = createForecast();
+        report("Formatting " + DAYS + " list rows", new Runnable() {
+            @Override
+            public void run() {
+                ForecastRow.fromCursor(mContext, cursor);
+            }
+        });
+        report("Refreshing the " + DAYS + " day widget", new Runnable() {
+            @Override
+            public void run() {
+                refreshWidget(cursor);
+            }
+        });
+
+        long[] widget = countAllocations(new Runnable() {
+            @Override
+            public void run() {
+                refreshWidget(cursor);
+            }
+        });
+        assertEquals("Error: a widget refresh should only read kept strings", 0, widget[0]);
+    }
+}
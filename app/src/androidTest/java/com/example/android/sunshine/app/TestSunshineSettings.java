@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+/*
+    Checks that the settings snapshot follows preference writes, and compares reading it with
+    reading the preferences the way Utility used to on every call.
+ */
+public class TestSunshineSettings extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSunshineSettings.class.getSimpleName();
+
+    private static final int READS = 100000;
+
+    private SharedPreferences mPrefs;
+    private String mUnits;
+    private int mLocationStatus;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnits = mPrefs.getString(mContext.getString(R.string.pref_units_key),
+                mContext.getString(R.string.pref_units_metric));
+        mLocationStatus = mPrefs.getInt(mContext.getString(R.string.pref_location_status_key),
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit()
+                .putString(mContext.getString(R.string.pref_units_key), mUnits)
+                .putInt(mContext.getString(R.string.pref_location_status_key), mLocationStatus)
+                .commit();
+        SunshineSettings.refresh(mContext);
+        super.tearDown();
+    }
+
+    // How Utility read the units before the snapshot
+    private static boolean readMetric(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getString(context.getString(R.string.pref_units_key),
+                context.getString(R.string.pref_units_metric))
+                .equals(context.getString(R.string.pref_units_metric));
+    }
+
+    public void testFollowsPreferences() {
+        mPrefs.edit().putString(mContext.getString(R.string.pref_units_key),
+                mContext.getString(R.string.pref_units_imperial)).commit();
+        // Listeners are called on the main thread; a listener of our own refreshes first
+        SunshineSettings.refresh(mContext);
+        assertFalse(Utility.isMetric(mContext));
+
+        mPrefs.edit().putString(mContext.getString(R.string.pref_units_key),
+                mContext.getString(R.string.pref_units_metric)).commit();
+        SunshineSettings.refresh(mContext);
+        assertTrue(Utility.isMetric(mContext));
+        assertEquals(readMetric(mContext), SunshineSettings.get(mContext).isMetric());
+    }
+
+    public void testLocationStatusIsSeenRightAway() {
+        Utility.resetLocationStatus(mContext);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN,
+                Utility.getLocationStatus(mContext));
+
+        SunshineSettings.setLocationStatus(mContext, SunshineSyncAdapter.LOCATION_STATUS_INVALID);
+        assertEquals("Error: the snapshot should change before the write is saved",
+                SunshineSyncAdapter.LOCATION_STATUS_INVALID, Utility.getLocationStatus(mContext));
+        assertEquals("Error: apply() should update the preferences in memory",
+                SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+                mPrefs.getInt(mContext.getString(R.string.pref_location_status_key), -1));
+    }
+
+    public void testReadSpeed() {
+        long preferences = 0;
+        long snapshot = 0;
+        int metric = 0;
+        // The first run warms up both
+        for (int run = 0; run < 2; run++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < READS; i++) {
+                if (readMetric(mContext)) {
+                    metric++;
+                }
+            }
+            preferences = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < READS; i++) {
+                if (Utility.isMetric(mContext)) {
+                    metric++;
+                }
+            }
+            snapshot = System.nanoTime() - start;
+        }
+        Log.i(LOG_TAG, READS + " unit reads: preferences " + preferences / READS + " ns each, " +
+                "snapshot " + snapshot / READS + " ns each (" + metric + ")");
+        assertTrue("Error: reading the snapshot should be faster than the preferences",
+                snapshot < preferences);
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.ArrayList;
+
+/*
+    Checks that WeatherProvider.applyBatch writes a whole sync in one transaction and notifies
+    observers once, and counts how many times the forecast list's loader would reload for a
+    sync written the old way (one provider call per step) and through applyBatch.
+ */
+public class TestApplyBatch extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestApplyBatch.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final int SYNC_DAYS = 14;
+
+    // Notified after the writes being measured; once it arrives, so have theirs
+    private static final Uri SENTINEL_URI =
+            WeatherContract.BASE_CONTENT_URI.buildUpon().appendPath("sentinel").build();
+
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    /*
+        Counts the changes reported to a URI, the way a CursorLoader's cursor hears about them.
+     */
+    static class CountingObserver extends ContentObserver {
+        final HandlerThread mHT;
+        int mChanges;
+        boolean mSentinelSeen;
+
+        static CountingObserver create() {
+            HandlerThread ht = new HandlerThread("CountingObserverThread");
+            ht.start();
+            return new CountingObserver(ht);
+        }
+
+        private CountingObserver(HandlerThread ht) {
+            super(new Handler(ht.getLooper()));
+            mHT = ht;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public synchronized void onChange(boolean selfChange, Uri uri) {
+            if (SENTINEL_URI.equals(uri)) {
+                mSentinelSeen = true;
+            } else {
+                mChanges++;
+            }
+        }
+
+        synchronized boolean sentinelSeen() {
+            return mSentinelSeen;
+        }
+
+        synchronized int getChanges() {
+            return mChanges;
+        }
+    }
+
+    /*
+        Registers an observer on the URI, runs the writes and returns how many notifications the
+        observer received for them.
+     */
+    private int countChanges(Uri observed, Runnable writes) {
+        final CountingObserver observer = CountingObserver.create();
+        mContext.getContentResolver().registerContentObserver(observed, true, observer);
+        mContext.getContentResolver().registerContentObserver(SENTINEL_URI, false, observer);
+        try {
+            writes.run();
+            mContext.getContentResolver().notifyChange(SENTINEL_URI, null);
+            new PollingCheck(5000) {
+                @Override
+                protected boolean check() {
+                    return observer.sentinelSeen();
+                }
+            }.run();
+            return observer.getChanges();
+        } finally {
+            mContext.getContentResolver().unregisterContentObserver(observer);
+            observer.mHT.quit();
+        }
+    }
+
+    private ContentValues createDay(int day) {
+        ContentValues values = TestUtilities.createWeatherValues(0);
+        values.remove(WeatherEntry.COLUMN_LOC_KEY);
+        values.put(WeatherEntry.COLUMN_DATE, mToday + day * DAY_IN_MILLIS);
+        return values;
+    }
+
+    // Yesterday and the day before, for the sync to prune
+    private long insertOldForecast() {
+        long locationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] days = new ContentValues[] { createDay(-2), createDay(-1) };
+        for (ContentValues day : days) {
+            day.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+        return locationId;
+    }
+
+    private String pruneArg() {
+        return Long.toString(mToday - DAY_IN_MILLIS);
+    }
+
+    // The provider calls a sync made before it used applyBatch
+    private void writeSyncOneCallAtATime() {
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[] { LocationEntry._ID }, LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[] { TestUtilities.TEST_LOCATION }, null);
+        assertTrue(cursor.moveToFirst());
+        long locationId = cursor.getLong(0);
+        cursor.close();
+
+        ContentValues validators = new ContentValues();
+        validators.put(LocationEntry.COLUMN_ETAG, "\"v2\"");
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, validators,
+                LocationEntry._ID + " = ?", new String[] { Long.toString(locationId) });
+
+        ContentValues[] days = new ContentValues[SYNC_DAYS];
+        for (int i = 0; i < SYNC_DAYS; i++) {
+            days[i] = createDay(i);
+            days[i].put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " <= ?", new String[] { pruneArg() });
+    }
+
+    // The batch SunshineSyncAdapter writes a forecast with
+    private ArrayList<ContentProviderOperation> buildSyncOperations(String etag) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        ContentValues location = TestUtilities.createNorthPoleLocationValues();
+        location.put(LocationEntry.COLUMN_ETAG, etag);
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(location).build());
+        for (int i = 0; i < SYNC_DAYS; i++) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(createDay(i))
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " <= ?", new String[] { pruneArg() })
+                .build());
+        return operations;
+    }
+
+    private ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) {
+        try {
+            return mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                    operations);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private int countWeatherRows() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[] { WeatherEntry._ID }, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    public void testSyncReloadsForecastOnce() {
+        // What MainActivity's forecast loader watches
+        Uri forecast = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, mToday);
+
+        insertOldForecast();
+        int oneCallAtATime = countChanges(forecast, new Runnable() {
+            @Override
+            public void run() {
+                writeSyncOneCallAtATime();
+            }
+        });
+        assertEquals(SYNC_DAYS, countWeatherRows());
+
+        deleteAllRecords();
+        insertOldForecast();
+        int batched = countChanges(forecast, new Runnable() {
+            @Override
+            public void run() {
+                ContentProviderResult[] results = applyBatch(buildSyncOperations("\"v2\""));
+                assertEquals("Error: both old days should be pruned",
+                        2, (int) results[results.length - 1].count);
+            }
+        });
+        assertEquals(SYNC_DAYS, countWeatherRows());
+
+        Log.i(LOG_TAG, "Forecast loader reloads per sync: " + oneCallAtATime +
+                " one call at a time, " + batched + " with applyBatch");
+        assertEquals("Error: a batched sync should notify the forecast once", 1, batched);
+        assertTrue(oneCallAtATime > batched);
+    }
+
+    public void testLocationInsertUpdatesExistingRow() {
+        long locationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+
+        ContentValues renamed = TestUtilities.createNorthPoleLocationValues();
+        renamed.put(LocationEntry.COLUMN_CITY_NAME, "Santa's Village");
+        Uri uri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, renamed);
+        assertEquals("Error: inserting a known location should return its row",
+                locationId, Long.parseLong(uri.getLastPathSegment()));
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, null, null, null);
+        TestUtilities.validateCursor("Error: the location should have been updated in place",
+                cursor, renamed);
+        cursor.close();
+    }
+
+    public void testBatchBackReferencesLocation() {
+        ContentProviderResult[] results = applyBatch(buildSyncOperations("\"v1\""));
+        long locationId = Long.parseLong(results[0].uri.getLastPathSegment());
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                new String[] { WeatherEntry.COLUMN_LOC_KEY }, null, null, null);
+        assertEquals(SYNC_DAYS, cursor.getCount());
+        while (cursor.moveToNext()) {
+            assertEquals(locationId, cursor.getLong(0));
+        }
+        cursor.close();
+
+        // A second sync reuses the location row
+        results = applyBatch(buildSyncOperations("\"v2\""));
+        assertEquals(locationId, Long.parseLong(results[0].uri.getLastPathSegment()));
+        assertEquals(SYNC_DAYS, countWeatherRows());
+    }
+
+    public void testFailedBatchWritesNothing() {
+        insertOldForecast();
+
+        ArrayList<ContentProviderOperation> operations = buildSyncOperations("\"v2\"");
+        // Expects a row that isn't there, so the batch fails after everything else ran
+        operations.add(ContentProviderOperation.newUpdate(LocationEntry.CONTENT_URI)
+                .withValue(LocationEntry.COLUMN_CITY_NAME, "Nowhere")
+                .withSelection(LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                        new String[] { "no such location" })
+                .withExpectedCount(1)
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                    operations);
+            fail("Error: the batch should have failed");
+        } catch (OperationApplicationException e) {
+            // expected
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                new String[] { WeatherEntry.COLUMN_DATE, LocationEntry.COLUMN_ETAG },
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: the old forecast should be untouched", 2, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(mToday - 2 * DAY_IN_MILLIS, cursor.getLong(0));
+        assertNull("Error: the location update should have been rolled back", cursor.getString(1));
+        cursor.close();
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Locale;
+
+/*
+    Measures how fast weather rows go into the database through WeatherProvider.bulkInsert,
+    compared with the db.insert per row loop it used to run.  Rows are spread over many
+    locations, 14 days each, and handed over in chunks the size of a large sync.
+ */
+public class TestBulkInsertBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestBulkInsertBenchmark.class.getSimpleName();
+
+    private static final int DAYS_PER_LOCATION = 14;
+    private static final int ROWS_PER_CHUNK = 10000;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private WeatherDbHelper mDbHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDbHelper = new WeatherDbHelper(mContext);
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    // Inserts the locations directly, they are not what is being measured.
+    private long[] insertLocations(int count) {
+        long[] locationIds = new long[count];
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        ContentValues values = new ContentValues();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                values.put(LocationEntry.COLUMN_LOCATION_SETTING, "benchmark-" + i);
+                values.put(LocationEntry.COLUMN_CITY_NAME, "City " + i);
+                values.put(LocationEntry.COLUMN_COORD_LAT, (i % 180) - 90.0);
+                values.put(LocationEntry.COLUMN_COORD_LONG, (i % 360) - 180.0);
+                locationIds[i] = db.insert(LocationEntry.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return locationIds;
+    }
+
+    private static ContentValues createRow(long locationId, int day) {
+        ContentValues weatherValues = new ContentValues();
+        weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+        weatherValues.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+        weatherValues.put(WeatherEntry.COLUMN_DEGREES, 1.1 + day);
+        weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, 60.0 + day);
+        weatherValues.put(WeatherEntry.COLUMN_PRESSURE, 1010.3 - day);
+        weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 25.5 + day);
+        weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, 12.25 + day);
+        weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+        weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+        weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+        return weatherValues;
+    }
+
+    private static ContentValues[] createChunk(long[] locationIds, int firstRow, int rows) {
+        ContentValues[] chunk = new ContentValues[rows];
+        for (int i = 0; i < rows; i++) {
+            int row = firstRow + i;
+            chunk[i] = createRow(locationIds[row / DAYS_PER_LOCATION], row % DAYS_PER_LOCATION);
+        }
+        return chunk;
+    }
+
+    // The way WeatherProvider.bulkInsert used to write each chunk.
+    private int legacyBulkInsert(SQLiteDatabase db, ContentValues[] values) {
+        int returnCount = 0;
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                value.put(WeatherEntry.COLUMN_DATE,
+                        WeatherContract.normalizeDate(value.getAsLong(WeatherEntry.COLUMN_DATE)));
+                if (db.insert(WeatherEntry.TABLE_NAME, null, value) != -1) {
+                    returnCount++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return returnCount;
+    }
+
+    private long countWeatherRows() {
+        Cursor cursor = mDbHelper.getReadableDatabase().rawQuery(
+                "SELECT COUNT(*) FROM " + WeatherEntry.TABLE_NAME, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        Inserts the given number of rows both ways and logs rows per second.  Only the insert
+        calls are timed; building the ContentValues is the caller's cost either way.
+     */
+    private void runBenchmark(int rows) {
+        int locations = (rows + DAYS_PER_LOCATION - 1) / DAYS_PER_LOCATION;
+        long[] locationIds = insertLocations(locations);
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        long legacyNanos = 0;
+        for (int first = 0; first < rows; first += ROWS_PER_CHUNK) {
+            ContentValues[] chunk = createChunk(locationIds, first,
+                    Math.min(ROWS_PER_CHUNK, rows - first));
+            long start = System.nanoTime();
+            assertEquals(chunk.length, legacyBulkInsert(db, chunk));
+            legacyNanos += System.nanoTime() - start;
+        }
+        assertEquals(rows, countWeatherRows());
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+
+        long providerNanos = 0;
+        for (int first = 0; first < rows; first += ROWS_PER_CHUNK) {
+            ContentValues[] chunk = createChunk(locationIds, first,
+                    Math.min(ROWS_PER_CHUNK, rows - first));
+            long start = System.nanoTime();
+            assertEquals(chunk.length,
+                    mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, chunk));
+            providerNanos += System.nanoTime() - start;
+        }
+        assertEquals(rows, countWeatherRows());
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%d rows, %d locations: db.insert per row %.0f rows/s, " +
+                        "compiled statement %.0f rows/s (%.2fx)",
+                rows, locations,
+                rows * 1e9 / legacyNanos, rows * 1e9 / providerNanos,
+                (double) legacyNanos / providerNanos));
+    }
+
+    public void testCompiledInsertMatchesInsert() {
+        long locationId = insertLocations(1)[0];
+        ContentValues row = createRow(locationId, 3);
+        long expectedDate = WeatherContract.normalizeDate(row.getAsLong(WeatherEntry.COLUMN_DATE));
+
+        assertEquals(1, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[] { new ContentValues(row) }));
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        row.put(WeatherEntry.COLUMN_DATE, expectedDate);
+        TestUtilities.validateCursor("Error: bulk inserted row doesn't match its values",
+                cursor, row);
+    }
+
+    public void testRowMissingColumnIsRejected() {
+        long locationId = insertLocations(1)[0];
+        ContentValues incomplete = createRow(locationId, 0);
+        incomplete.remove(WeatherEntry.COLUMN_SHORT_DESC);
+
+        assertEquals("Error: only the complete row should be inserted", 1,
+                mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                        new ContentValues[] { incomplete, createRow(locationId, 1) }));
+    }
+
+    public void testBulkInsert10k() {
+        runBenchmark(10000);
+    }
+
+    public void testBulkInsert100k() {
+        runBenchmark(100000);
+    }
+
+    public void testBulkInsert1M() {
+        runBenchmark(1000000);
+    }
+}
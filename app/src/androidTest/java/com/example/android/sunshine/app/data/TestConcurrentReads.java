@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/*
+    Checks that the weather database runs in write-ahead-log mode and that provider queries,
+    like the ones the loaders and widgets make, keep being answered while a large sync write
+    is in progress.
+ */
+public class TestConcurrentReads extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestConcurrentReads.class.getSimpleName();
+
+    private static final int INGEST_LOCATIONS = 4000;
+    private static final int DAYS_PER_LOCATION = 14;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testJournalModeIsWal() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        Cursor cursor = db.rawQuery("PRAGMA journal_mode", null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Error: weather.db should use write-ahead logging",
+                    "wal", cursor.getString(0).toLowerCase(Locale.US));
+        } finally {
+            cursor.close();
+            dbHelper.close();
+        }
+    }
+
+    private static long percentile(long[] sortedNanos, int count, int percent) {
+        int index = Math.min(count - 1, (count * percent) / 100);
+        return sortedNanos[index];
+    }
+
+    public void testReadsProceedDuringIngest() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        long readerLocationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues readerDay = TestUtilities.createWeatherValues(readerLocationId);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, readerDay);
+
+        // Build the whole ingest up front so the writer thread only spends its time in
+        // the provider's transaction.
+        long[] locationIds = new long[INGEST_LOCATIONS];
+        ContentValues locationValues = new ContentValues();
+        for (int i = 0; i < INGEST_LOCATIONS; i++) {
+            locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "ingest-" + i);
+            locationValues.put(LocationEntry.COLUMN_CITY_NAME, "City " + i);
+            locationValues.put(LocationEntry.COLUMN_COORD_LAT, 10.0);
+            locationValues.put(LocationEntry.COLUMN_COORD_LONG, 20.0);
+            locationIds[i] = Long.parseLong(mContext.getContentResolver()
+                    .insert(LocationEntry.CONTENT_URI, locationValues).getLastPathSegment());
+        }
+        final ContentValues[] ingest = new ContentValues[INGEST_LOCATIONS * DAYS_PER_LOCATION];
+        for (int i = 0; i < ingest.length; i++) {
+            ContentValues values = TestUtilities.createWeatherValues(locationIds[i / DAYS_PER_LOCATION]);
+            values.put(WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + (i % DAYS_PER_LOCATION) * DAY_IN_MILLIS);
+            ingest[i] = values;
+        }
+
+        final long[] writeWindow = new long[2];
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                writeWindow[0] = System.nanoTime();
+                mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, ingest);
+                writeWindow[1] = System.nanoTime();
+            }
+        };
+
+        long[] latencies = new long[100000];
+        int reads = 0;
+        int readsDuringWrite = 0;
+        writer.start();
+        while (writer.isAlive() && reads < latencies.length) {
+            long start = System.nanoTime();
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                    null, null, null, null);
+            assertNotNull(cursor);
+            assertTrue("Error: the reader should see the committed row", cursor.moveToFirst());
+            cursor.close();
+            long end = System.nanoTime();
+            latencies[reads++] = end - start;
+            if (writer.isAlive()) {
+                readsDuringWrite++;
+            }
+        }
+        writer.join();
+
+        Cursor all = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[] { WeatherEntry._ID }, null, null, null);
+        // the ingest plus the reader's own row
+        assertEquals("Error: the ingest didn't complete", ingest.length + 1, all.getCount());
+        all.close();
+
+        Arrays.sort(latencies, 0, reads);
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%d row ingest took %d ms; %d reads during it: p50 %.2f ms, p90 %.2f ms, " +
+                        "p99 %.2f ms, max %.2f ms",
+                ingest.length, (writeWindow[1] - writeWindow[0]) / 1000000, readsDuringWrite,
+                percentile(latencies, reads, 50) / 1e6, percentile(latencies, reads, 90) / 1e6,
+                percentile(latencies, reads, 99) / 1e6, latencies[reads - 1] / 1e6));
+
+        // With a rollback journal the first read would wait for the whole ingest to commit.
+        assertTrue("Error: reads should be answered while the ingest is running",
+                readsDuringWrite > 1);
+    }
+}
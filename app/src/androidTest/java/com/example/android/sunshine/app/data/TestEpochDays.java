@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/*
+    Checks EpochDays against the android.text.format.Time code it replaced, in zones with DST
+    transitions at and around midnight, and compares the speed of both.
+ */
+public class TestEpochDays extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestEpochDays.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final long FIRST_TIME = 1262304000000L;   // January 1st, 2010 UTC
+    private static final long LAST_TIME = 1546300800000L;    // January 1st, 2019 UTC
+    // Not a divisor of an hour, so the samples drift through every time of day
+    private static final long STEP = 97 * 60 * 1000L + 1234;
+
+    private static final String[] ZONES = new String[] {
+            "UTC",
+            "America/Los_Angeles",
+            "Europe/London",
+            "Asia/Kolkata",
+            "Australia/Lord_Howe",   // half hour DST
+            "America/Sao_Paulo",     // DST started at midnight
+            "America/St_Johns",      // DST ended at 00:01, so midnight happened twice
+            "Asia/Tehran"
+    };
+
+    private TimeZone mDefaultZone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDefaultZone = TimeZone.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TimeZone.setDefault(mDefaultZone);
+        EpochDays.invalidate();
+        super.tearDown();
+    }
+
+    private static void useZone(String id) {
+        TimeZone.setDefault(TimeZone.getTimeZone(id));
+        EpochDays.invalidate();
+    }
+
+    // WeatherContract.normalizeDate before EpochDays
+    private static long legacyNormalizeDate(long startDate, Time time) {
+        time.set(startDate);
+        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
+        return time.setJulianDay(julianDay);
+    }
+
+    // Where midnight happened twice Time may pick the second one; EpochDays takes the first
+    private static boolean isSecondMidnight(long expected, long actual) {
+        TimeZone zone = TimeZone.getDefault();
+        return actual < expected && (expected + zone.getOffset(expected)) % DAY_IN_MILLIS == 0
+                && EpochDays.epochDay(expected) == EpochDays.epochDay(actual);
+    }
+
+    public void testStartOfDayMatchesTime() {
+        for (String zone : ZONES) {
+            useZone(zone);
+            Time time = new Time();
+            int skippedMidnights = 0;
+            for (long t = FIRST_TIME; t < LAST_TIME; t += STEP) {
+                long expected = legacyNormalizeDate(t, time);
+                long actual = EpochDays.startOfDay(t);
+                if (expected == -1) {
+                    // Time can't represent a midnight that didn't happen; EpochDays starts the
+                    // day when the clocks went forward.
+                    skippedMidnights++;
+                    assertEquals(zone + ": the day should start on the same day",
+                            EpochDays.epochDay(t), EpochDays.epochDay(actual));
+                    assertEquals(zone + ": the day should start right after the gap",
+                            EpochDays.epochDay(t) - 1, EpochDays.epochDay(actual - 1));
+                    continue;
+                }
+                if (!isSecondMidnight(expected, actual)) {
+                    assertEquals(zone + ": start of the day of " + t, expected, actual);
+                }
+                assertEquals(zone + ": " + t + " is already normalized",
+                        actual, EpochDays.startOfDay(actual));
+            }
+            if (skippedMidnights > 0) {
+                Log.i(LOG_TAG, zone + ": " + skippedMidnights +
+                        " samples on days that had no midnight");
+            }
+        }
+    }
+
+    public void testEpochDayMatchesJulianDay() {
+        for (String zone : ZONES) {
+            useZone(zone);
+            TimeZone timeZone = TimeZone.getDefault();
+            for (long t = FIRST_TIME; t < LAST_TIME; t += STEP) {
+                long gmtoff = timeZone.getOffset(t) / 1000;
+                assertEquals(zone + ": day of " + t, Time.getJulianDay(t, gmtoff),
+                        EpochDays.epochDay(t) + Time.EPOCH_JULIAN_DAY);
+            }
+        }
+    }
+
+    public void testStartOfEpochDayMatchesSetJulianDay() {
+        for (String zone : ZONES) {
+            useZone(zone);
+            Time time = new Time();
+            int firstDay = (int) (FIRST_TIME / DAY_IN_MILLIS);
+            int lastDay = (int) (LAST_TIME / DAY_IN_MILLIS);
+            for (int day = firstDay; day < lastDay; day++) {
+                long expected = time.setJulianDay(day + Time.EPOCH_JULIAN_DAY);
+                if (expected != -1 && !isSecondMidnight(expected, EpochDays.startOfEpochDay(day))) {
+                    assertEquals(zone + ": start of day " + day,
+                            expected, EpochDays.startOfEpochDay(day));
+                }
+            }
+        }
+    }
+
+    public void testTodayFollowsZoneChange() {
+        useZone("Pacific/Kiritimati");   // UTC+14
+        int eastDay = EpochDays.today();
+        long eastStart = EpochDays.startOfDay(System.currentTimeMillis());
+        useZone("Pacific/Pago_Pago");    // UTC-11
+        int westDay = EpochDays.today();
+
+        // 25 hours apart, so a day or two depending on the time
+        assertTrue("Error: today should follow the zone", westDay < eastDay);
+        assertFalse(eastStart == EpochDays.startOfDay(System.currentTimeMillis()));
+    }
+
+    // Utility.getFriendlyDayString before EpochDays
+    private String legacyFriendlyDayString(long dateInMillis, boolean displayLongToday) {
+        Time time = new Time();
+        time.setToNow();
+        int julianDay = Time.getJulianDay(dateInMillis, time.gmtoff);
+        int currentJulianDay = Time.getJulianDay(System.currentTimeMillis(), time.gmtoff);
+        if (displayLongToday && julianDay == currentJulianDay) {
+            return mContext.getString(R.string.format_full_friendly_date,
+                    mContext.getString(R.string.today),
+                    new SimpleDateFormat("MMMM dd").format(dateInMillis));
+        } else if (julianDay < currentJulianDay + 7) {
+            if (julianDay == currentJulianDay) {
+                return mContext.getString(R.string.today);
+            } else if (julianDay == currentJulianDay + 1) {
+                return mContext.getString(R.string.tomorrow);
+            }
+            return new SimpleDateFormat("EEEE").format(dateInMillis);
+        }
+        return new SimpleDateFormat("EEE MMM dd").format(dateInMillis);
+    }
+
+    public void testFriendlyDayStringsUnchanged() {
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            for (Locale locale : new Locale[] { Locale.US, Locale.FRANCE, Locale.JAPAN }) {
+                Locale.setDefault(locale);
+                for (String zone : ZONES) {
+                    useZone(zone);
+                    // Midday, so both agree on the day even across a DST change
+                    long today = EpochDays.startOfEpochDay(EpochDays.today()) + DAY_IN_MILLIS / 2;
+                    for (int day = -1; day < 14; day++) {
+                        long date = today + day * DAY_IN_MILLIS;
+                        assertEquals(locale + ", " + zone + ", day " + day,
+                                legacyFriendlyDayString(date, true),
+                                Utility.getFriendlyDayString(mContext, date, true));
+                        assertEquals(locale + ", " + zone + ", day " + day,
+                                legacyFriendlyDayString(date, false),
+                                Utility.getFriendlyDayString(mContext, date, false));
+                    }
+                }
+            }
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    /*
+        Times normalizing a sync's worth of dates, the way bulkInsert and the URI builders do,
+        with a new Time per call as before and with EpochDays.
+     */
+    public void testNormalizeDateSpeed() {
+        final int iterations = 200000;
+        long today = System.currentTimeMillis();
+        long checksum = 0;
+
+        for (int warmup = 0; warmup < 2; warmup++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                checksum += legacyNormalizeDate(today + (i % 14) * DAY_IN_MILLIS, new Time());
+            }
+            long legacyNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                checksum -= EpochDays.startOfDay(today + (i % 14) * DAY_IN_MILLIS);
+            }
+            long epochDaysNanos = System.nanoTime() - start;
+
+            if (warmup == 1) {
+                Log.i(LOG_TAG, String.format(Locale.US,
+                        "normalizeDate: Time %.0f ns/call, EpochDays %.0f ns/call (%.1fx)",
+                        (double) legacyNanos / iterations, (double) epochDaysNanos / iterations,
+                        (double) legacyNanos / epochDaysNanos));
+            }
+        }
+        assertEquals("Error: both should normalize to the same dates", 0, checksum);
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that WeatherProvider answers repeated location queries from its query cache, and
+    that every kind of write drops exactly the cached results it affects.
+ */
+public class TestQueryCache extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryCache.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final String OTHER_LOCATION = "94043";
+
+    private ContentProviderClient mClient;
+    private WeatherQueryCache mCache;
+    private long mLocationId;
+    private long mOtherLocationId;
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mClient = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        mCache = ((WeatherProvider) mClient.getLocalContentProvider()).getQueryCache();
+        deleteAllRecords();
+
+        mLocationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues other = TestUtilities.createNorthPoleLocationValues();
+        other.put(LocationEntry.COLUMN_LOCATION_SETTING, OTHER_LOCATION);
+        mOtherLocationId = Long.parseLong(mContext.getContentResolver()
+                .insert(LocationEntry.CONTENT_URI, other).getLastPathSegment());
+
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] days = new ContentValues[7];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = createDay(mLocationId, i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        mClient.release();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private ContentValues createDay(long locationId, int day) {
+        ContentValues values = TestUtilities.createWeatherValues(locationId);
+        values.put(WeatherEntry.COLUMN_DATE, mToday + day * DAY_IN_MILLIS);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 20 + day);
+        return values;
+    }
+
+    private String readAll(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        StringBuilder contents = new StringBuilder();
+        while (cursor.moveToNext()) {
+            for (int i = 0; i < cursor.getColumnCount(); i++) {
+                contents.append(cursor.getColumnName(i)).append('=')
+                        .append(cursor.getString(i)).append(';');
+            }
+            contents.append('\n');
+        }
+        cursor.close();
+        return contents.toString();
+    }
+
+    // Queries the URI and returns whether it was answered from the cache
+    private boolean queryHits(Uri uri) {
+        long hits = mCache.getHitCount();
+        readAll(uri);
+        return mCache.getHitCount() > hits;
+    }
+
+    public void testRepeatedQueryIsCached() {
+        if (!WeatherQueryCache.isSupported()) {
+            return;
+        }
+        Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION, mToday);
+
+        String first = readAll(uri);
+        long misses = mCache.getMissCount();
+        String second = readAll(uri);
+
+        assertEquals("Error: a cached result should read exactly like the database", first, second);
+        assertEquals("Error: the second query should not go to the database",
+                misses, mCache.getMissCount());
+        assertTrue(mCache.getSizeBytes() > 0);
+        assertTrue(mCache.getSizeBytes() <= mCache.getMaxSizeBytes());
+
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertTrue(cursor.moveToFirst());
+        assertEquals(20.0, cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP)));
+        assertEquals(mLocationId, cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_LOC_KEY)));
+        assertEquals(7, cursor.getCount());
+        cursor.close();
+
+        Log.i(LOG_TAG, mCache.getEntryCount() + " results, " + mCache.getSizeBytes() +
+                " bytes, " + mCache.getHitCount() + " hits, " + mCache.getMissCount() + " misses");
+    }
+
+    public void testWritesInvalidateOnlyMatchingResults() {
+        if (!WeatherQueryCache.isSupported()) {
+            return;
+        }
+        Uri list = WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                mToday + 3 * DAY_IN_MILLIS);
+        Uri today = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, mToday);
+        Uri other = WeatherEntry.buildWeatherLocation(OTHER_LOCATION);
+        readAll(list);
+        readAll(today);
+        readAll(other);
+
+        // Another location's weather leaves these results alone
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, createDay(mOtherLocationId, 0));
+        assertTrue(queryHits(list));
+        assertTrue(queryHits(today));
+        assertFalse("Error: the other location's result should be dropped", queryHits(other));
+
+        // A day before the list's start date only touches today
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[] { createDay(mLocationId, 0) });
+        assertTrue(queryHits(list));
+        assertFalse("Error: today was rewritten", queryHits(today));
+
+        // Replacing a later day touches the list only
+        ContentValues changed = createDay(mLocationId, 5);
+        changed.put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, changed);
+        assertTrue(queryHits(today));
+        assertFalse("Error: day 5 was rewritten", queryHits(list));
+        assertTrue("Error: the list should show the new value", readAll(list).contains("max=99"));
+
+        // Pruning old days touches today, not the list
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " <= ?", new String[] { Long.toString(mToday) });
+        assertTrue(queryHits(list));
+        assertFalse("Error: today was deleted", queryHits(today));
+        assertEquals("", readAll(today));
+
+        // Updating the location changes every joined row
+        ContentValues renamed = new ContentValues();
+        renamed.put(LocationEntry.COLUMN_CITY_NAME, "Santa's Village");
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, renamed,
+                LocationEntry._ID + " = ?", new String[] { Long.toString(mLocationId) });
+        assertFalse("Error: the location was renamed", queryHits(list));
+        assertTrue(readAll(list).contains("Santa's Village"));
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Locale;
+
+/*
+    Runs EXPLAIN QUERY PLAN on the queries behind each weather URI of the provider and fails
+    if SQLite would scan a whole table to answer them.  The plans are checked, and the
+    queries timed, with 10, 1k and 100k locations in the database.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    private static final int DAYS_PER_LOCATION = 14;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final int TIMED_QUERIES = 200;
+
+    // The sort order the loaders, widgets and Muzei ask for
+    private static final String SORT_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private WeatherDbHelper mDbHelper;
+    private long mFirstDate;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDbHelper = new WeatherDbHelper(mContext);
+        mFirstDate = WeatherContract.normalizeDate(System.currentTimeMillis());
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static String locationSetting(int i) {
+        return "plan-" + i;
+    }
+
+    private void populate(int locations) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        ContentValues locationValues = new ContentValues();
+        SQLiteStatement insertWeather = db.compileStatement("INSERT INTO " +
+                WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + "," + WeatherEntry.COLUMN_DATE + "," +
+                WeatherEntry.COLUMN_WEATHER_ID + "," + WeatherEntry.COLUMN_SHORT_DESC + "," +
+                WeatherEntry.COLUMN_MIN_TEMP + "," + WeatherEntry.COLUMN_MAX_TEMP + "," +
+                WeatherEntry.COLUMN_HUMIDITY + "," + WeatherEntry.COLUMN_PRESSURE + "," +
+                WeatherEntry.COLUMN_WIND_SPEED + "," + WeatherEntry.COLUMN_DEGREES +
+                ") VALUES (?,?,800,'Clear',10,20,50,1010,5,180)");
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < locations; i++) {
+                locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting(i));
+                locationValues.put(LocationEntry.COLUMN_CITY_NAME, "City " + i);
+                locationValues.put(LocationEntry.COLUMN_COORD_LAT, 10.0);
+                locationValues.put(LocationEntry.COLUMN_COORD_LONG, 20.0);
+                long locationId = db.insert(LocationEntry.TABLE_NAME, null, locationValues);
+                for (int day = 0; day < DAYS_PER_LOCATION; day++) {
+                    insertWeather.bindLong(1, locationId);
+                    insertWeather.bindLong(2, mFirstDate + day * DAY_IN_MILLIS);
+                    insertWeather.executeInsert();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insertWeather.close();
+        }
+    }
+
+    /*
+        Returns the plan of the given provider query, one step per line, and fails if any step
+        is a full table scan.
+     */
+    private String checkPlan(String name, String selection, String[] selectionArgs) {
+        String sql = SQLiteQueryBuilder.buildQueryString(false,
+                WeatherProvider.sWeatherByLocationSettingQueryBuilder.getTables(),
+                null, selection, null, null, SORT_ORDER, null);
+        Cursor cursor = mDbHelper.getReadableDatabase().rawQuery(
+                "EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        StringBuilder plan = new StringBuilder();
+        try {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                String detail = cursor.getString(detailIndex);
+                plan.append("\n    ").append(detail);
+                assertFalse("Error: " + name + " scans a whole table: " + detail + "\n" + sql,
+                        detail.startsWith("SCAN"));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan.toString();
+    }
+
+    private double timeQueries(Uri[] uris) {
+        long start = System.nanoTime();
+        for (int i = 0; i < TIMED_QUERIES; i++) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    uris[i % uris.length], null, null, null, SORT_ORDER);
+            assertTrue(cursor.moveToFirst());
+            cursor.close();
+        }
+        return (System.nanoTime() - start) / 1e3 / TIMED_QUERIES;
+    }
+
+    private void runPlans(int locations) {
+        populate(locations);
+
+        String probe = locationSetting(locations / 2);
+        long probeDate = mFirstDate + 3 * DAY_IN_MILLIS;
+
+        Log.i(LOG_TAG, locations + " locations, weather/*:" + checkPlan("weather/*",
+                WeatherProvider.sLocationSettingSelection, new String[] { probe }));
+        Log.i(LOG_TAG, locations + " locations, weather/*?date=:" + checkPlan("weather/*?date=",
+                WeatherProvider.sLocationSettingWithStartDateSelection,
+                new String[] { probe, Long.toString(probeDate) }));
+        Log.i(LOG_TAG, locations + " locations, weather/*/*:" + checkPlan("weather/*/*",
+                WeatherProvider.sLocationSettingAndDaySelection,
+                new String[] { probe, Long.toString(probeDate) }));
+
+        // Query locations spread over the whole table, through the provider itself
+        Uri[] byLocation = new Uri[10];
+        Uri[] byStartDate = new Uri[10];
+        Uri[] byDay = new Uri[10];
+        for (int i = 0; i < byLocation.length; i++) {
+            String setting = locationSetting((int) ((long) locations * i / byLocation.length));
+            byLocation[i] = WeatherEntry.buildWeatherLocation(setting);
+            byStartDate[i] = WeatherEntry.buildWeatherLocationWithStartDate(setting, probeDate);
+            byDay[i] = WeatherEntry.buildWeatherLocationWithDate(setting, probeDate);
+        }
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%d locations: weather/* %.1f us, weather/*?date= %.1f us, weather/*/* %.1f us",
+                locations, timeQueries(byLocation), timeQueries(byStartDate),
+                timeQueries(byDay)));
+    }
+
+    public void testPlans10Locations() {
+        runPlans(10);
+    }
+
+    public void testPlans1kLocations() {
+        runPlans(1000);
+    }
+
+    public void testPlans100kLocations() {
+        runPlans(100000);
+    }
+
+    public void testPruningUsesDateIndex() {
+        populate(10);
+        Cursor cursor = mDbHelper.getReadableDatabase().rawQuery("EXPLAIN QUERY PLAN DELETE FROM " +
+                WeatherEntry.TABLE_NAME + " WHERE " + WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[] { Long.toString(mFirstDate) });
+        try {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            assertTrue(cursor.moveToFirst());
+            String detail = cursor.getString(detailIndex);
+            assertTrue("Error: pruning old days should use " + WeatherDbHelper.WEATHER_DATE_INDEX +
+                    ": " + detail, detail.contains(WeatherDbHelper.WEATHER_DATE_INDEX));
+        } finally {
+            cursor.close();
+        }
+    }
+}
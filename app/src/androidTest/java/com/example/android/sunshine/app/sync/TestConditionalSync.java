@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.EpochDays;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+
+/*
+    Runs SunshineSyncAdapter against a local stub of the OpenWeatherMap server to make sure a
+    forecast that hasn't changed is neither downloaded nor written to the database again.
+ */
+public class TestConditionalSync extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestConditionalSync.class.getSimpleName();
+
+    private static final String TEST_ETAG = "\"forecast-v1\"";
+    private static final String TEST_LAST_MODIFIED = "Mon, 14 Sep 2015 10:00:00 GMT";
+
+    private StubForecastServer mServer;
+
+    /*
+        A tiny single threaded HTTP server that answers every request with the same forecast,
+        or with "304 Not Modified" when the request carries its ETag.
+     */
+    static class StubForecastServer extends Thread {
+        final ServerSocket mServerSocket;
+        final byte[] mBody;
+        volatile int mRequests;
+        volatile int mNotModified;
+        volatile long mBytesSent;
+
+        StubForecastServer(byte[] body) throws IOException {
+            mServerSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+            mBody = body;
+        }
+
+        String getBaseUrl() {
+            return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/forecast/daily?";
+        }
+
+        @Override
+        public void run() {
+            while (!mServerSocket.isClosed()) {
+                try {
+                    Socket socket = mServerSocket.accept();
+                    try {
+                        handle(socket);
+                    } finally {
+                        socket.close();
+                    }
+                } catch (SocketException e) {
+                    // The server socket was closed
+                    return;
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Stub server error", e);
+                }
+            }
+        }
+
+        private void handle(Socket socket) throws IOException {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            String ifNoneMatch = null;
+            String line;
+            while ((line = reader.readLine()) != null && line.length() > 0) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).equalsIgnoreCase("If-None-Match")) {
+                    ifNoneMatch = line.substring(colon + 1).trim();
+                }
+            }
+            mRequests++;
+
+            String headers;
+            byte[] body;
+            if (TEST_ETAG.equals(ifNoneMatch)) {
+                mNotModified++;
+                headers = "HTTP/1.1 304 Not Modified\r\n" +
+                        "ETag: " + TEST_ETAG + "\r\n" +
+                        "Connection: close\r\n\r\n";
+                body = new byte[0];
+            } else {
+                headers = "HTTP/1.1 200 OK\r\n" +
+                        "Content-Type: application/json; charset=utf-8\r\n" +
+                        "Content-Length: " + mBody.length + "\r\n" +
+                        "ETag: " + TEST_ETAG + "\r\n" +
+                        "Last-Modified: " + TEST_LAST_MODIFIED + "\r\n" +
+                        "Connection: close\r\n\r\n";
+                body = mBody;
+            }
+            byte[] headerBytes = headers.getBytes("US-ASCII");
+            OutputStream out = socket.getOutputStream();
+            out.write(headerBytes);
+            out.write(body);
+            out.flush();
+            mBytesSent += headerBytes.length + body.length;
+        }
+
+        void shutdown() throws IOException {
+            mServerSocket.close();
+        }
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+
+        // Keep the sync from posting a notification (and downloading its artwork) during tests.
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putLong(mContext.getString(R.string.pref_last_notification),
+                        System.currentTimeMillis())
+                .commit();
+
+        mServer = new StubForecastServer(
+                TestForecastJsonParser.createForecastResponse(16).getBytes("UTF-8"));
+        mServer.start();
+        SunshineSyncAdapter.sForecastBaseUrl = mServer.getBaseUrl();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SunshineSyncAdapter.sForecastBaseUrl = SunshineSyncAdapter.FORECAST_BASE_URL;
+        mServer.shutdown();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private SyncResult sync() {
+        SyncResult syncResult = new SyncResult();
+        new SunshineSyncAdapter(mContext, false).onPerformSync(null, new Bundle(),
+                WeatherContract.CONTENT_AUTHORITY, null, syncResult);
+        return syncResult;
+    }
+
+    private static long databaseWrites(SyncResult syncResult) {
+        return syncResult.stats.numInserts + syncResult.stats.numUpdates
+                + syncResult.stats.numDeletes;
+    }
+
+    public void testRepeatedSyncsAreNotModified() {
+        final int syncs = 5;
+
+        long bytesBefore = mServer.mBytesSent;
+        SyncResult first = sync();
+        long firstSyncBytes = mServer.mBytesSent - bytesBefore;
+
+        assertFalse("Error: the first sync failed", first.hasError());
+        // 16 days plus the location itself
+        assertEquals("Error: the first sync should store the whole forecast",
+                17, first.stats.numInserts);
+
+        long repeatedBytes = 0;
+        long repeatedWrites = 0;
+        for (int i = 1; i < syncs; i++) {
+            bytesBefore = mServer.mBytesSent;
+            SyncResult repeated = sync();
+            repeatedBytes += mServer.mBytesSent - bytesBefore;
+            repeatedWrites += databaseWrites(repeated);
+
+            assertFalse("Error: repeated sync " + i + " failed", repeated.hasError());
+            assertEquals("Error: repeated sync " + i + " should have been answered from the validators",
+                    1, repeated.stats.numSkippedEntries);
+        }
+
+        Log.i(LOG_TAG, syncs + " syncs: first " + firstSyncBytes + " bytes, " +
+                databaseWrites(first) + " writes; the other " + (syncs - 1) + " " +
+                repeatedBytes + " bytes, " + repeatedWrites + " writes");
+
+        assertEquals(syncs, mServer.mRequests);
+        assertEquals(syncs - 1, mServer.mNotModified);
+        assertEquals("Error: an unchanged forecast should not touch the database",
+                0, repeatedWrites);
+        assertTrue("Error: an unchanged forecast should not be downloaded again",
+                repeatedBytes < firstSyncBytes / 10);
+    }
+
+    public void testNotModifiedSyncDeletesPastDays() {
+        assertFalse("Error: the first sync failed", sync().hasError());
+
+        // A day from before today, as if the forecast had been stored a few days ago
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        ContentValues pastDay = new ContentValues();
+        DatabaseUtils.cursorRowToContentValues(cursor, pastDay);
+        int days = cursor.getCount();
+        cursor.close();
+        pastDay.remove(WeatherContract.WeatherEntry._ID);
+        pastDay.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                EpochDays.startOfEpochDay(EpochDays.today() - 3));
+        mContext.getContentResolver().insert(WeatherContract.WeatherEntry.CONTENT_URI, pastDay);
+
+        SyncResult notModified = sync();
+        assertFalse("Error: the repeated sync failed", notModified.hasError());
+        assertEquals(1, notModified.stats.numSkippedEntries);
+        assertEquals("Error: the past day should be deleted on a 304",
+                1, notModified.stats.numDeletes);
+
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals(days, cursor.getCount());
+        cursor.close();
+    }
+}
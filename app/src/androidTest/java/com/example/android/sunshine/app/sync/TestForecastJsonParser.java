@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/*
+    Compares the streaming forecast parser with the JSONObject parser it replaced, both for
+    correctness and for the time and memory each one needs to get through a response.
+ */
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastJsonParser.class.getSimpleName();
+
+    private static final int BENCHMARK_ITERATIONS = 200;
+
+    // One day of a response recorded from api.openweathermap.org/data/2.5/forecast/daily,
+    // including the fields we don't store.
+    private static final String RECORDED_DAY =
+            "{\"dt\":%d,\"temp\":{\"day\":21.3,\"min\":%.2f,\"max\":%.2f,\"night\":12.61," +
+            "\"eve\":19.46,\"morn\":14.2},\"pressure\":%.2f,\"humidity\":%d," +
+            "\"weather\":[{\"id\":%d,\"main\":\"Rain\",\"description\":\"light rain\"," +
+            "\"icon\":\"10d\"}],\"speed\":%.2f,\"deg\":%d,\"clouds\":48,\"rain\":1.27}";
+
+    private static final String RECORDED_CITY =
+            "\"city\":{\"id\":5375480,\"name\":\"Mountain View\",\"coord\":" +
+            "{\"lon\":-122.083847,\"lat\":37.386051},\"country\":\"US\",\"population\":0}";
+
+    static String createForecastResponse(int days) {
+        StringBuilder builder = new StringBuilder();
+        builder.append('{').append(RECORDED_CITY)
+                .append(",\"cod\":\"200\",\"message\":0.0123,\"cnt\":").append(days)
+                .append(",\"list\":[");
+        for (int i = 0; i < days; i++) {
+            if (i > 0) builder.append(',');
+            builder.append(String.format(Locale.US, RECORDED_DAY,
+                    1442174400L + i * 86400L, 10.5 + i, 22.25 + i, 1012.4 - i, 60 + i,
+                    500 + (i % 5), 3.5 + i * 0.25, 200 + i));
+        }
+        builder.append("]}");
+        return builder.toString();
+    }
+
+    static class Day {
+        double pressure;
+        int humidity;
+        double windSpeed;
+        double windDirection;
+        double high;
+        double low;
+        String description;
+        int weatherId;
+    }
+
+    static class RecordingCallback implements ForecastJsonParser.Callback {
+        String cityName;
+        double latitude;
+        double longitude;
+        final List<Day> days = new ArrayList<Day>();
+
+        @Override
+        public void onCity(String cityName, double latitude, double longitude) {
+            this.cityName = cityName;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+
+        @Override
+        public void onDay(int dayIndex, double pressure, int humidity, double windSpeed,
+                          double windDirection, double high, double low, String description,
+                          int weatherId) {
+            assertEquals("Error: days must be reported in order", days.size(), dayIndex);
+            Day day = new Day();
+            day.pressure = pressure;
+            day.humidity = humidity;
+            day.windSpeed = windSpeed;
+            day.windDirection = windDirection;
+            day.high = high;
+            day.low = low;
+            day.description = description;
+            day.weatherId = weatherId;
+            days.add(day);
+        }
+    }
+
+    // A callback that throws everything away, so only the parser's own cost is measured.
+    static final ForecastJsonParser.Callback DISCARDING_CALLBACK = new ForecastJsonParser.Callback() {
+        @Override
+        public void onCity(String cityName, double latitude, double longitude) {
+        }
+
+        @Override
+        public void onDay(int dayIndex, double pressure, int humidity, double windSpeed,
+                          double windDirection, double high, double low, String description,
+                          int weatherId) {
+        }
+    };
+
+    private static InputStream toStream(String response) throws IOException {
+        return new ByteArrayInputStream(response.getBytes("UTF-8"));
+    }
+
+    // The way SunshineSyncAdapter used to read a response before parsing it.
+    private static String legacyReadResponse(InputStream inputStream) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+        StringBuffer buffer = new StringBuffer();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            buffer.append(line + "\n");
+        }
+        reader.close();
+        return buffer.toString();
+    }
+
+    public void testStreamingMatchesDom() throws Exception {
+        String response = createForecastResponse(16);
+
+        RecordingCallback streamed = new RecordingCallback();
+        int streamedCode = ForecastJsonParser.parse(
+                new InputStreamReader(toStream(response), "UTF-8"), streamed);
+
+        RecordingCallback parsed = new RecordingCallback();
+        int parsedCode = ForecastJsonParser.parseDom(response, parsed);
+
+        assertEquals(HttpURLConnection.HTTP_OK, streamedCode);
+        assertEquals(HttpURLConnection.HTTP_OK, parsedCode);
+        assertEquals("Mountain View", streamed.cityName);
+        assertEquals(parsed.cityName, streamed.cityName);
+        assertEquals(parsed.latitude, streamed.latitude);
+        assertEquals(parsed.longitude, streamed.longitude);
+        assertEquals(16, streamed.days.size());
+        assertEquals(parsed.days.size(), streamed.days.size());
+
+        for (int i = 0; i < parsed.days.size(); i++) {
+            Day expected = parsed.days.get(i);
+            Day actual = streamed.days.get(i);
+            assertEquals("Error: pressure of day " + i, expected.pressure, actual.pressure);
+            assertEquals("Error: humidity of day " + i, expected.humidity, actual.humidity);
+            assertEquals("Error: wind speed of day " + i, expected.windSpeed, actual.windSpeed);
+            assertEquals("Error: wind direction of day " + i, expected.windDirection, actual.windDirection);
+            assertEquals("Error: high of day " + i, expected.high, actual.high);
+            assertEquals("Error: low of day " + i, expected.low, actual.low);
+            assertEquals("Error: description of day " + i, expected.description, actual.description);
+            assertEquals("Error: weather id of day " + i, expected.weatherId, actual.weatherId);
+        }
+    }
+
+    public void testErrorCode() throws Exception {
+        String response = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, ForecastJsonParser.parse(
+                new InputStreamReader(toStream(response), "UTF-8"), DISCARDING_CALLBACK));
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND,
+                ForecastJsonParser.parseDom(response, DISCARDING_CALLBACK));
+    }
+
+    public void testIncompleteDayIsRejected() throws Exception {
+        String response = "{" + RECORDED_CITY + ",\"list\":[{\"pressure\":1000.1}]}";
+        try {
+            ForecastJsonParser.parse(
+                    new InputStreamReader(toStream(response), "UTF-8"), DISCARDING_CALLBACK);
+            fail("Error: a day without temperatures should not be accepted");
+        } catch (JSONException expected) {
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testParseBenchmark() throws Exception {
+        byte[] response = createForecastResponse(16).getBytes("UTF-8");
+
+        // Warm up both paths so class loading and JIT don't end up in the numbers.
+        for (int i = 0; i < 20; i++) {
+            ForecastJsonParser.parseDom(
+                    legacyReadResponse(new ByteArrayInputStream(response)), DISCARDING_CALLBACK);
+            ForecastJsonParser.parse(new InputStreamReader(
+                    new ByteArrayInputStream(response), "UTF-8"), DISCARDING_CALLBACK);
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            ForecastJsonParser.parseDom(
+                    legacyReadResponse(new ByteArrayInputStream(response)), DISCARDING_CALLBACK);
+        }
+        long domNanos = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        int domAllocCount = Debug.getThreadAllocCount();
+        int domAllocSize = Debug.getThreadAllocSize();
+
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            ForecastJsonParser.parse(new InputStreamReader(
+                    new ByteArrayInputStream(response), "UTF-8"), DISCARDING_CALLBACK);
+        }
+        long streamNanos = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        int streamAllocCount = Debug.getThreadAllocCount();
+        int streamAllocSize = Debug.getThreadAllocSize();
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%d byte response x %d: DOM %.1f us/parse, %d objects, %d bytes/parse; " +
+                        "streaming %.1f us/parse, %d objects, %d bytes/parse",
+                response.length, BENCHMARK_ITERATIONS,
+                domNanos / 1000.0 / BENCHMARK_ITERATIONS,
+                domAllocCount / BENCHMARK_ITERATIONS, domAllocSize / BENCHMARK_ITERATIONS,
+                streamNanos / 1000.0 / BENCHMARK_ITERATIONS,
+                streamAllocCount / BENCHMARK_ITERATIONS, streamAllocSize / BENCHMARK_ITERATIONS));
+
+        // Allocation counting isn't supported on every runtime; only compare when it reported.
+        if (domAllocSize > 0 && streamAllocSize > 0) {
+            assertTrue("Error: the streaming parser should allocate less than the DOM parser",
+                    streamAllocSize < domAllocSize);
+        }
+    }
+}
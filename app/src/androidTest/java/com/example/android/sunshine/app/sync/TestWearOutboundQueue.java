@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+
+/*
+    Checks that the outbound queue only delivers the newest message per node and path, keeps
+    failed messages for the next connection, forgets nodes that are cleared and counts what it
+    coalesced.
+ */
+public class TestWearOutboundQueue extends AndroidTestCase {
+
+    private static final String WATCH = "watch";
+    private static final String OTHER_WATCH = "other-watch";
+    private static final String PATH = WeatherWearableListener.PATH_WEATHER_UPDATE;
+
+    private static byte[] payload(int value) {
+        return new byte[] { (byte) value };
+    }
+
+    public void testBurstWhileOfflineDeliversNewest() {
+        WearOutboundQueue queue = new WearOutboundQueue();
+        // A sync, a location change and a settings change while the watch is away
+        queue.offer(WATCH, PATH, payload(1), 0);
+        queue.offer(WATCH, PATH, payload(2), 10);
+        queue.offer(WATCH, PATH, payload(3), 20);
+        queue.offer(OTHER_WATCH, PATH, payload(3), 20);
+        assertEquals(2, queue.getDepth());
+        assertEquals(2, queue.getCoalescedCount());
+
+        // The watch comes back
+        ArrayList<WearOutboundQueue.Entry> ready = queue.takeReady(WATCH);
+        assertEquals(1, ready.size());
+        assertEquals(3, ready.get(0).mPayload[0]);
+        assertEquals("Error: the other watch's message should still wait", 1, queue.getDepth());
+
+        queue.onSent(ready.get(0), true, 120);
+        assertEquals(1, queue.getDeliveryLatency().getCount());
+        assertEquals(100, queue.getDeliveryLatency().getMaxMillis());
+        assertTrue(queue.takeReady(WATCH).isEmpty());
+    }
+
+    public void testOfferWhileSendingWaitsForTheSend() {
+        WearOutboundQueue queue = new WearOutboundQueue();
+        queue.offer(WATCH, PATH, payload(1), 0);
+        WearOutboundQueue.Entry sending = queue.takeReady(WATCH).get(0);
+
+        queue.offer(WATCH, PATH, payload(2), 5);
+        assertTrue("Error: one message per path may be on its way at a time",
+                queue.takeReady(WATCH).isEmpty());
+
+        queue.onSent(sending, true, 10);
+        ArrayList<WearOutboundQueue.Entry> ready = queue.takeReady(WATCH);
+        assertEquals(1, ready.size());
+        assertEquals(2, ready.get(0).mPayload[0]);
+    }
+
+    public void testFailedSendIsKeptUnlessSuperseded() {
+        WearOutboundQueue queue = new WearOutboundQueue();
+        queue.offer(WATCH, PATH, payload(1), 0);
+        WearOutboundQueue.Entry failed = queue.takeReady(WATCH).get(0);
+        queue.onSent(failed, false, 10);
+        assertEquals("Error: a failed message should wait for the next connection",
+                1, queue.getDepth());
+        assertEquals(0, queue.getDeliveryLatency().getCount());
+
+        failed = queue.takeReady(WATCH).get(0);
+        queue.offer(WATCH, PATH, payload(2), 20);
+        queue.onSent(failed, false, 30);
+        ArrayList<WearOutboundQueue.Entry> ready = queue.takeReady(WATCH);
+        assertEquals(1, ready.size());
+        assertEquals("Error: the newer message should win over the failed one",
+                2, ready.get(0).mPayload[0]);
+    }
+
+    public void testClearForgetsTheNode() {
+        WearOutboundQueue queue = new WearOutboundQueue();
+        queue.offer(WATCH, PATH, payload(1), 0);
+        WearOutboundQueue.Entry sending = queue.takeReady(WATCH).get(0);
+        queue.offer(WATCH, "/other", payload(2), 5);
+        queue.offer(OTHER_WATCH, PATH, payload(3), 5);
+
+        queue.clear(WATCH);
+        assertEquals(1, queue.getDepth());
+        queue.onSent(sending, false, 10);
+        assertEquals("Error: a send to a cleared node shouldn't be queued again",
+                1, queue.getDepth());
+        assertTrue(queue.takeReady(WATCH).isEmpty());
+        assertEquals(1, queue.takeReady(OTHER_WATCH).size());
+    }
+
+    public void testPathsAreQueuedSeparately() {
+        WearOutboundQueue queue = new WearOutboundQueue();
+        queue.offer(WATCH, PATH, payload(1), 0);
+        queue.offer(WATCH, "/other", payload(2), 0);
+        assertEquals(2, queue.takeReady(WATCH).size());
+        assertEquals(0, queue.getCoalescedCount());
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.Weather;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+
+/*
+    Runs repeated syncs of the same forecast the way WeatherWearableListener sends them, from the
+    provider through the payload and its fingerprint into the outbound queue, and checks that a
+    watch only receives the weather when it changes or when a refresh is forced.
+ */
+public class TestWearPushSuppression extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "99705";
+    private static final String WATCH = "watch";
+    private static final long HOUR_IN_MILLIS = 60 * 60 * 1000;
+    private static final long MAX_AGE_MILLIS = 4 * HOUR_IN_MILLIS;
+
+    private WearOutboundQueue mQueue;
+    private long mNow;
+    private int mDelivered;
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private void setLastSync(String locationSetting, long time) {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.pref_last_sync_location), locationSetting)
+                .putLong(mContext.getString(R.string.pref_last_sync_time), time)
+                .commit();
+    }
+
+    private long insertLocation() {
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, TEST_LOCATION);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -147.353);
+        Uri locationUri = mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI, locationValues);
+        return ContentUris.parseId(locationUri);
+    }
+
+    // What a sync stores for today; the sync adapter replaces the row on every sync
+    private void storeToday(long locationId, double high) {
+        ContentValues weatherValues = new ContentValues();
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.normalizeDate(System.currentTimeMillis()));
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 1.1);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 1.2);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1.3);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 65);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 321);
+        mContext.getContentResolver().insert(
+                WeatherContract.WeatherEntry.CONTENT_URI, weatherValues);
+        setLastSync(TEST_LOCATION, System.currentTimeMillis());
+    }
+
+    // One sync reaching the listener: read today, encode it and hand it to the queue, then
+    // deliver whatever the queue lets through
+    private boolean sync(boolean force) {
+        mNow += HOUR_IN_MILLIS;
+        Weather today = TodayWeatherAsyncTask.getWeatherFromProvider(mContext, TEST_LOCATION,
+                MAX_AGE_MILLIS);
+        assertNotNull(today);
+        byte[] payload = TodayWeatherAsyncTask.encodePayload(mContext, today, mNow);
+        boolean offered = mQueue.offer(WATCH, WeatherWearableListener.PATH_WEATHER_UPDATE,
+                payload, WeatherPayload.fingerprint(payload), force, mNow);
+
+        ArrayList<WearOutboundQueue.Entry> ready = mQueue.takeReady(WATCH);
+        for (WearOutboundQueue.Entry entry : ready) {
+            mQueue.onSent(entry, true, mNow);
+            mDelivered++;
+        }
+        return offered;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mQueue = new WearOutboundQueue();
+        mNow = System.currentTimeMillis();
+        mDelivered = 0;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        setLastSync(null, 0);
+        super.tearDown();
+    }
+
+    public void testIdenticalSyncsAreSuppressed() {
+        long locationId = insertLocation();
+        for (int i = 0; i < 5; i++) {
+            storeToday(locationId, 75);
+            sync(false);
+        }
+        assertEquals("Error: the same weather should only reach the watch once", 1, mDelivered);
+        assertEquals(4, mQueue.getSuppressedCount());
+
+        storeToday(locationId, 76);
+        assertTrue("Error: a new temperature should be sent", sync(false));
+        assertEquals(2, mDelivered);
+        assertEquals(4, mQueue.getSuppressedCount());
+    }
+
+    public void testForcedRefreshIsSent() {
+        long locationId = insertLocation();
+        storeToday(locationId, 75);
+        sync(false);
+        assertTrue("Error: a forced refresh should be sent", sync(true));
+        assertEquals(2, mDelivered);
+        assertEquals(0, mQueue.getSuppressedCount());
+    }
+
+    public void testUndeliveredWeatherIsNotSuppressed() {
+        long locationId = insertLocation();
+        storeToday(locationId, 75);
+        Weather today = TodayWeatherAsyncTask.getWeatherFromProvider(mContext, TEST_LOCATION,
+                MAX_AGE_MILLIS);
+        byte[] payload = TodayWeatherAsyncTask.encodePayload(mContext, today, mNow);
+        mQueue.offer(WATCH, WeatherWearableListener.PATH_WEATHER_UPDATE, payload,
+                WeatherPayload.fingerprint(payload), false, mNow);
+        mQueue.onSent(mQueue.takeReady(WATCH).get(0), false, mNow);
+
+        assertTrue("Error: weather the watch never acknowledged should be sent again",
+                sync(false));
+        assertEquals(1, mDelivered);
+    }
+
+    public void testSuppressionIsPerWatch() {
+        long locationId = insertLocation();
+        storeToday(locationId, 75);
+        sync(false);
+        byte[] payload = TodayWeatherAsyncTask.encodePayload(mContext,
+                TodayWeatherAsyncTask.getWeatherFromProvider(mContext, TEST_LOCATION,
+                        MAX_AGE_MILLIS), mNow);
+        assertTrue("Error: another watch hasn't seen this weather yet",
+                mQueue.offer("other-watch", WeatherWearableListener.PATH_WEATHER_UPDATE,
+                        payload, WeatherPayload.fingerprint(payload), false, mNow));
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.Weather;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+public class TestWearWeatherFromProvider extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWearWeatherFromProvider.class.getSimpleName();
+
+    private static final String TEST_LOCATION = "99705";
+    private static final long HOUR_IN_MILLIS = 60 * 60 * 1000;
+    private static final long MAX_AGE_MILLIS = 4 * HOUR_IN_MILLIS;
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private void setLastSync(String locationSetting, long time) {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.pref_last_sync_location), locationSetting)
+                .putLong(mContext.getString(R.string.pref_last_sync_time), time)
+                .commit();
+    }
+
+    private void insertToday() {
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, TEST_LOCATION);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -147.353);
+        Uri locationUri = mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI, locationValues);
+
+        ContentValues weatherValues = new ContentValues();
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                ContentUris.parseId(locationUri));
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.normalizeDate(System.currentTimeMillis()));
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 1.1);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 1.2);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1.3);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 75);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 65);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 321);
+        mContext.getContentResolver().insert(
+                WeatherContract.WeatherEntry.CONTENT_URI, weatherValues);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        setLastSync(null, 0);
+        super.tearDown();
+    }
+
+    public void testFreshDataIsServed() {
+        insertToday();
+        setLastSync(TEST_LOCATION, System.currentTimeMillis() - HOUR_IN_MILLIS);
+
+        long start = SystemClock.elapsedRealtime();
+        Weather weather = TodayWeatherAsyncTask.getWeatherFromProvider(mContext, TEST_LOCATION,
+                MAX_AGE_MILLIS);
+        Log.i(LOG_TAG, "Read today's weather from the provider in " +
+                (SystemClock.elapsedRealtime() - start) + " ms");
+
+        assertNotNull("Error: fresh data should be served from the provider", weather);
+        assertEquals(321, weather.getWeatherId());
+        assertEquals(64.7488, weather.getCityLatitude());
+        assertEquals(75.0, weather.getHigh());
+        assertEquals(65.0, weather.getLow());
+    }
+
+    public void testStaleDataIsNotServed() {
+        insertToday();
+        setLastSync(TEST_LOCATION, System.currentTimeMillis() - MAX_AGE_MILLIS - HOUR_IN_MILLIS);
+
+        assertNull("Error: stale data should go to the network",
+                TodayWeatherAsyncTask.getWeatherFromProvider(mContext, TEST_LOCATION,
+                        MAX_AGE_MILLIS));
+    }
+
+    public void testStaleDataIsServedWhenTheNetworkFails() {
+        insertToday();
+        setLastSync(TEST_LOCATION, System.currentTimeMillis() - 30 * 24 * HOUR_IN_MILLIS);
+
+        Weather weather = TodayWeatherAsyncTask.getWeatherFromProvider(mContext, TEST_LOCATION,
+                TodayWeatherAsyncTask.ANY_AGE);
+        assertNotNull("Error: stale data should be served if the network fails", weather);
+        assertEquals(321, weather.getWeatherId());
+    }
+
+    public void testOtherLocationSyncIsIgnored() {
+        insertToday();
+        setLastSync("94043", System.currentTimeMillis());
+
+        assertNull("Error: the last sync was for another location",
+                TodayWeatherAsyncTask.getWeatherFromProvider(mContext, TEST_LOCATION,
+                        MAX_AGE_MILLIS));
+    }
+
+    public void testMissingTodayIsNotServed() {
+        setLastSync(TEST_LOCATION, System.currentTimeMillis());
+
+        assertNull("Error: there is no row for today",
+                TodayWeatherAsyncTask.getWeatherFromProvider(mContext, TEST_LOCATION,
+                        MAX_AGE_MILLIS));
+    }
+}
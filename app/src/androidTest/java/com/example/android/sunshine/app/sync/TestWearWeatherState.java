@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+/*
+    Checks which payloads WearWeatherState treats as new weather worth publishing, going by the
+    fingerprint kept for the last one published.
+ */
+public class TestWearWeatherState extends AndroidTestCase {
+
+    private static final long TIMESTAMP = 1442232000000L;
+
+    private SharedPreferences mPrefs;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mPrefs.edit().remove(WearWeatherState.PREF_PUBLISHED_FINGERPRINT).commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().remove(WearWeatherState.PREF_PUBLISHED_FINGERPRINT).commit();
+        super.tearDown();
+    }
+
+    private static byte[] payload(long timestamp, boolean imperial, int weatherId, double high) {
+        return WeatherPayload.encode(timestamp, imperial,
+                new WeatherPayload.Day(weatherId, high, 10));
+    }
+
+    private boolean hasChangedSince(byte[] published, byte[] payload) {
+        WearWeatherState.setPublished(mPrefs, published);
+        return WearWeatherState.hasChanged(mPrefs, payload);
+    }
+
+    public void testNothingPublishedYet() {
+        assertTrue(WearWeatherState.hasChanged(mPrefs, payload(TIMESTAMP, false, 800, 21.5)));
+    }
+
+    public void testNewTimestampIsNotNewWeather() {
+        assertFalse(hasChangedSince(payload(TIMESTAMP, false, 800, 21.5),
+                payload(TIMESTAMP + 60 * 60 * 1000, false, 800, 21.5)));
+    }
+
+    public void testChangeTheWatchWouldntShowIsNotNewWeather() {
+        // Both are shown as 22 degrees
+        assertFalse(hasChangedSince(payload(TIMESTAMP, false, 800, 21.5),
+                payload(TIMESTAMP, false, 800, 21.6)));
+    }
+
+    public void testChangesArePublished() {
+        byte[] published = payload(TIMESTAMP, false, 800, 21.5);
+        assertTrue("Error: a new temperature should be published",
+                hasChangedSince(published, payload(TIMESTAMP, false, 800, 22.6)));
+        assertTrue("Error: a new condition should be published",
+                hasChangedSince(published, payload(TIMESTAMP, false, 801, 21.5)));
+        assertTrue("Error: a change of units should be published",
+                hasChangedSince(published, payload(TIMESTAMP, true, 800, 21.5)));
+        assertTrue("Error: a forecast day more should be published",
+                hasChangedSince(published, WeatherPayload.encode(TIMESTAMP, false,
+                        new WeatherPayload.Day(800, 21.5, 10),
+                        new WeatherPayload.Day(800, 21.5, 10))));
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestWeatherFetchCoordinator extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "99705";
+    private static final int CALLERS = 8;
+
+    /*
+        A fetch that doesn't finish until the test lets it, so callers can pile up behind it.
+     */
+    static class BlockingFetch implements Callable<String> {
+        final CountDownLatch mStarted = new CountDownLatch(1);
+        final CountDownLatch mRelease = new CountDownLatch(1);
+        final AtomicInteger mCalls = new AtomicInteger();
+
+        @Override
+        public String call() throws Exception {
+            mCalls.incrementAndGet();
+            mStarted.countDown();
+            mRelease.await(10, TimeUnit.SECONDS);
+            return "forecast";
+        }
+    }
+
+    public void testConcurrentCallersShareOneFetch() throws Exception {
+        final WeatherFetchCoordinator coordinator = new WeatherFetchCoordinator();
+        final BlockingFetch fetch = new BlockingFetch();
+        final String[] results = new String[CALLERS];
+        final CountDownLatch done = new CountDownLatch(CALLERS);
+
+        Thread[] threads = new Thread[CALLERS];
+        for (int i = 0; i < CALLERS; i++) {
+            final int caller = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        results[caller] = coordinator.fetch(TEST_LOCATION,
+                                WeatherFetchCoordinator.QUERY_FORECAST, 0, fetch);
+                    } catch (Exception e) {
+                        results[caller] = e.toString();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+        }
+
+        // Start one caller, and only start the others once its fetch is running.
+        threads[0].start();
+        assertTrue(fetch.mStarted.await(10, TimeUnit.SECONDS));
+        for (int i = 1; i < CALLERS; i++) {
+            threads[i].start();
+        }
+        while (coordinator.getCoalescedCount() < CALLERS - 1) {
+            Thread.sleep(10);
+        }
+        fetch.mRelease.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        assertEquals("Error: the fetch should run only once", 1, fetch.mCalls.get());
+        for (int i = 0; i < CALLERS; i++) {
+            assertEquals("Error: caller " + i + " got the wrong result", "forecast", results[i]);
+        }
+        assertEquals(1, coordinator.getMissCount());
+        assertEquals(CALLERS - 1, coordinator.getCoalescedCount());
+        assertEquals(0, coordinator.getHitCount());
+    }
+
+    public void testRecentResultIsReused() throws Exception {
+        WeatherFetchCoordinator coordinator = new WeatherFetchCoordinator();
+        final AtomicInteger calls = new AtomicInteger();
+        Callable<String> fetch = new Callable<String>() {
+            @Override
+            public String call() {
+                return "weather " + calls.incrementAndGet();
+            }
+        };
+
+        assertEquals("weather 1", coordinator.fetch(TEST_LOCATION,
+                WeatherFetchCoordinator.QUERY_CURRENT, 60 * 1000, fetch));
+        assertEquals("weather 1", coordinator.fetch(TEST_LOCATION,
+                WeatherFetchCoordinator.QUERY_CURRENT, 60 * 1000, fetch));
+        assertEquals(1, coordinator.getHitCount());
+
+        // A caller that doesn't accept completed results, a different location or a different
+        // query type all go to the network.
+        assertEquals("weather 2", coordinator.fetch(TEST_LOCATION,
+                WeatherFetchCoordinator.QUERY_CURRENT, 0, fetch));
+        assertEquals("weather 3", coordinator.fetch("94043",
+                WeatherFetchCoordinator.QUERY_CURRENT, 60 * 1000, fetch));
+        assertEquals("weather 4", coordinator.fetch(TEST_LOCATION,
+                WeatherFetchCoordinator.QUERY_FORECAST, 60 * 1000, fetch));
+
+        coordinator.invalidate();
+        assertEquals("weather 5", coordinator.fetch(TEST_LOCATION,
+                WeatherFetchCoordinator.QUERY_CURRENT, 60 * 1000, fetch));
+        assertEquals(1, coordinator.getHitCount());
+        assertEquals(5, coordinator.getMissCount());
+    }
+
+    public void testFailureIsRethrownAndNotReused() throws Exception {
+        WeatherFetchCoordinator coordinator = new WeatherFetchCoordinator();
+        final AtomicInteger calls = new AtomicInteger();
+        Callable<String> failingFetch = new Callable<String>() {
+            @Override
+            public String call() throws IOException {
+                calls.incrementAndGet();
+                throw new IOException("server down");
+            }
+        };
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                coordinator.fetch(TEST_LOCATION, WeatherFetchCoordinator.QUERY_CURRENT,
+                        60 * 1000, failingFetch);
+                fail("Error: the fetch's IOException should reach the caller");
+            } catch (IOException expected) {
+                assertEquals("server down", expected.getMessage());
+            }
+        }
+        assertEquals("Error: a failed fetch should be retried", 2, calls.get());
+        assertEquals(0, coordinator.getHitCount());
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.google.android.gms.wearable.DataMap;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/*
+    Checks the layout of the weather payload sent to the watch, and compares its size and the
+    time to encode and decode it with the DataMap it replaced.
+ */
+public class TestWeatherPayload extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherPayload.class.getSimpleName();
+
+    private static final long TIMESTAMP = 1442232000000L;
+
+    public void testLayout() {
+        byte[] payload = WeatherPayload.encode(TIMESTAMP, true,
+                new WeatherPayload.Day(321, 23.46, -0.04));
+        assertEquals(WeatherPayload.HEADER_SIZE, payload.length);
+
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        assertEquals(WeatherPayload.VERSION, buffer.get());
+        assertEquals(WeatherPayload.FLAG_IMPERIAL, buffer.get());
+        assertEquals(TIMESTAMP, buffer.getLong());
+        assertEquals(321, buffer.getShort());
+        // 74.2 and 31.9 in Fahrenheit
+        assertEquals(74, buffer.getShort());
+        assertEquals(32, buffer.getShort());
+        assertEquals(0, buffer.get());
+    }
+
+    public void testForecastDays() {
+        WeatherPayload.Day[] days = new WeatherPayload.Day[] {
+                new WeatherPayload.Day(800, 30, 20),
+                new WeatherPayload.Day(500, -12.5, -20.25)
+        };
+        byte[] payload = WeatherPayload.encode(TIMESTAMP, false,
+                new WeatherPayload.Day(801, 25, 15), days);
+        assertEquals(WeatherPayload.HEADER_SIZE + 2 * WeatherPayload.DAY_SIZE, payload.length);
+
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        buffer.position(WeatherPayload.HEADER_SIZE - 1);
+        assertEquals(2, buffer.get());
+        assertEquals(800, buffer.getShort());
+        assertEquals(30, buffer.getShort());
+        assertEquals(20, buffer.getShort());
+        assertEquals(500, buffer.getShort());
+        assertEquals("Error: halves should round away from zero", -13, buffer.getShort());
+        assertEquals(-20, buffer.getShort());
+    }
+
+    // What the watch shows for a temperature from the payload
+    private static String watchFormat(short degrees) {
+        String number = degrees == WeatherPayload.MINUS_ZERO ? "-0" : Integer.toString(degrees);
+        return number + "\u00B0";
+    }
+
+    private void checkMatchesPhone(double celsius) {
+        for (int units = 0; units < 2; units++) {
+            boolean imperial = units == 1;
+            assertEquals("Error: the watch would show " + celsius + " differently",
+                    Utility.formatTemperature(mContext, celsius, !imperial),
+                    watchFormat(WeatherPayload.toDegrees(celsius, imperial)));
+        }
+    }
+
+    public void testRoundsLikeThePhone() {
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.US);
+            // Rounding to tenths first would send 20.5 and show 21
+            assertEquals(20, WeatherPayload.toDegrees(20.46, false));
+            assertEquals(20, WeatherPayload.toDegrees(20.45, false));
+            assertEquals(WeatherPayload.MINUS_ZERO, WeatherPayload.toDegrees(-0.04, false));
+            double[] edges = { 20.46, 20.45, 20.5, -20.45, -0.5, -0.04, 0.0, -17.75, -17.78 };
+            for (double celsius : edges) {
+                checkMatchesPhone(celsius);
+            }
+            for (int hundredths = -4000; hundredths <= 5000; hundredths++) {
+                checkMatchesPhone(hundredths / 100.0);
+                checkMatchesPhone(hundredths / 100.0 + 0.005);
+            }
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    public void testTemperaturesOutOfRangeAreClamped() {
+        assertEquals(Short.MAX_VALUE, WeatherPayload.toDegrees(1e6, false));
+        assertEquals(Short.MIN_VALUE + 1, WeatherPayload.toDegrees(-1e6, false));
+    }
+
+    // What TodayWeatherAsyncTask sent before WeatherPayload
+    private DataMap legacyDataMap(double high, double low) {
+        DataMap config = new DataMap();
+        config.putString("low_temp", Utility.formatTemperature(mContext, low));
+        config.putString("max_temp", Utility.formatTemperature(mContext, high));
+        config.putInt("weather_id", 321);
+        return config;
+    }
+
+    private static int legacyDecode(byte[] data) {
+        DataMap config = DataMap.fromByteArray(data);
+        return config.getString("max_temp").length() + config.getString("low_temp").length()
+                + config.getInt("weather_id");
+    }
+
+    // Reads the payload the way the watch does
+    private static int decode(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        return buffer.get(0) + buffer.getShort(10) + buffer.getShort(12) + buffer.getShort(14);
+    }
+
+    /*
+        Compares the size of both encodings, and the time to build, encode and decode each.
+     */
+    public void testSizeAndSpeedAgainstDataMap() {
+        final int iterations = 20000;
+        double high = 23.4;
+        double low = 12.1;
+
+        byte[] legacy = legacyDataMap(high, low).toByteArray();
+        byte[] payload = WeatherPayload.encode(TIMESTAMP, false,
+                new WeatherPayload.Day(321, high, low));
+        Log.i(LOG_TAG, "Payload size: DataMap " + legacy.length + " bytes, WeatherPayload " +
+                payload.length + " bytes");
+        assertTrue("Error: the payload should be smaller than the DataMap",
+                payload.length < legacy.length);
+
+        long checksum = 0;
+        for (int warmup = 0; warmup < 2; warmup++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                checksum += legacyDataMap(high + i % 10, low).toByteArray().length;
+            }
+            long legacyEncodeNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                checksum += WeatherPayload.encode(TIMESTAMP, false,
+                        new WeatherPayload.Day(321, high + i % 10, low)).length;
+            }
+            long encodeNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                checksum += legacyDecode(legacy);
+            }
+            long legacyDecodeNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                checksum += decode(payload);
+            }
+            long decodeNanos = System.nanoTime() - start;
+
+            if (warmup == 1) {
+                Log.i(LOG_TAG, String.format(Locale.US,
+                        "Encode: DataMap %.0f ns, WeatherPayload %.0f ns; " +
+                                "decode: DataMap %.0f ns, WeatherPayload %.0f ns",
+                        (double) legacyEncodeNanos / iterations,
+                        (double) encodeNanos / iterations,
+                        (double) legacyDecodeNanos / iterations,
+                        (double) decodeNanos / iterations));
+            }
+        }
+        assertTrue(checksum != 0);
+    }
+}
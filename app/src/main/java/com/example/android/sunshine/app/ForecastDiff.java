@@ -0,0 +1,125 @@
+package com.example.android.sunshine.app;
+
+import android.support.v7.widget.RecyclerView;
+
+/**
+ * The item-level changes that turn one list of {@link ForecastRow}s into another, so a reload
+ * only rebinds the days that changed.
+ *
+ * Rows are keyed by date, which stays the same when a sync replaces a day (its _ID doesn't).
+ * Both lists are sorted by date, so one merge pass finds every insert, removal and change;
+ * there are never moves.  Consecutive changes of one kind are dispatched as one range.
+ */
+final class ForecastDiff {
+    static final int INSERT = 0;
+    static final int REMOVE = 1;
+    static final int CHANGE = 2;
+
+    // The rows the diff starts from; it only applies to an adapter still showing them
+    final ForecastRow[] mFrom;
+
+    // Triples of kind, position and count, in the order they must be dispatched
+    private final int[] mOps;
+    private int mOpCount;
+    private boolean mFirstRowReplaced;
+
+    private ForecastDiff(ForecastRow[] from, int maxOps) {
+        mFrom = from;
+        mOps = new int[maxOps * 3];
+    }
+
+    static ForecastDiff compute(ForecastRow[] from, ForecastRow[] to) {
+        ForecastDiff diff = new ForecastDiff(from, from.length + to.length);
+        int i = 0;
+        int j = 0;
+        // Position in the list as it looks after the events added so far
+        int position = 0;
+        while (i < from.length && j < to.length) {
+            long oldDate = from[i].mDate;
+            long newDate = to[j].mDate;
+            if (oldDate < newDate) {
+                diff.add(REMOVE, position);
+                i++;
+            } else if (oldDate > newDate) {
+                diff.add(INSERT, position++);
+                j++;
+            } else {
+                if (!from[i].sameContent(to[j])) {
+                    diff.add(CHANGE, position);
+                }
+                position++;
+                i++;
+                j++;
+            }
+        }
+        for (; i < from.length; i++) {
+            diff.add(REMOVE, position);
+        }
+        for (; j < to.length; j++) {
+            diff.add(INSERT, position++);
+        }
+        // The first row gets the today layout, so a day moving into it has to be rebound
+        diff.mFirstRowReplaced = from.length > 0 && to.length > 0
+                && from[0].mDate != to[0].mDate;
+        return diff;
+    }
+
+    private void add(int kind, int position) {
+        if (mOpCount > 0) {
+            int last = (mOpCount - 1) * 3;
+            if (mOps[last] == kind) {
+                int end = mOps[last + 1] + mOps[last + 2];
+                // Removals happen at one position, the others grow the range forwards
+                if ((kind == REMOVE && position == mOps[last + 1])
+                        || (kind != REMOVE && position == end)) {
+                    mOps[last + 2]++;
+                    return;
+                }
+            }
+        }
+        int next = mOpCount++ * 3;
+        mOps[next] = kind;
+        mOps[next + 1] = position;
+        mOps[next + 2] = 1;
+    }
+
+    void dispatch(RecyclerView.Adapter adapter) {
+        for (int op = 0; op < mOpCount * 3; op += 3) {
+            int position = mOps[op + 1];
+            int count = mOps[op + 2];
+            switch (mOps[op]) {
+                case INSERT:
+                    adapter.notifyItemRangeInserted(position, count);
+                    break;
+                case REMOVE:
+                    adapter.notifyItemRangeRemoved(position, count);
+                    break;
+                default:
+                    adapter.notifyItemRangeChanged(position, count);
+            }
+        }
+        if (mFirstRowReplaced) {
+            adapter.notifyItemChanged(0);
+        }
+    }
+
+    int getOpCount() {
+        return mOpCount;
+    }
+
+    int getKind(int op) {
+        return mOps[op * 3];
+    }
+
+    int getPosition(int op) {
+        return mOps[op * 3 + 1];
+    }
+
+    int getCount(int op) {
+        return mOps[op * 3 + 2];
+    }
+
+    boolean isFirstRowReplaced() {
+        return mFirstRowReplaced;
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.android.sunshine.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.support.v4.content.CursorLoader;
+
+import com.example.android.sunshine.app.data.EpochDays;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * A {@link CursorLoader} that also formats the forecast into {@link ForecastRow}s while it is
+ * still on the loader's background thread.  The rows travel with the cursor as a
+ * {@link ForecastCursor}, so the fragment's callbacks and the cursor's lifecycle are unchanged.
+ *
+ * Each reload is also diffed, in the background, against the rows last delivered, so the
+ * adapter can rebind only the days a sync changed.
+ *
+ * The rows' day labels and temperatures depend on the date, the time zone and the locale,
+ * none of which notify the weather URI.  The loader listens for their broadcasts itself and
+ * reloads, starting the query from the new today, so "Today" moves at midnight.
+ */
+public class ForecastLoader extends CursorLoader {
+
+    /**
+     * The loaded cursor and the rows formatted from it.
+     */
+    static final class ForecastCursor extends CursorWrapper {
+        private final ForecastRow[] mRows;
+        private final ForecastDiff mDiff;
+
+        ForecastCursor(Cursor cursor, ForecastRow[] rows, ForecastDiff diff) {
+            super(cursor);
+            mRows = rows;
+            mDiff = diff;
+        }
+
+        ForecastRow[] getRows() {
+            return mRows;
+        }
+
+        /**
+         * @return the changes from the rows delivered before these, or null for a first load
+         */
+        ForecastDiff getDiff() {
+            return mDiff;
+        }
+    }
+
+    // Set on the main thread, read on the loader's thread
+    private volatile ForecastRow[] mDelivered;
+
+    private BroadcastReceiver mDayReceiver;
+
+    public ForecastLoader(Context context, Uri uri, String[] projection, String selection,
+                          String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Cursor cursor = super.loadInBackground();
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            ForecastRow[] rows = ForecastRow.fromCursor(getContext(), cursor);
+            ForecastRow[] delivered = mDelivered;
+            ForecastDiff diff = delivered != null ? ForecastDiff.compute(delivered, rows) : null;
+            return new ForecastCursor(cursor, rows, diff);
+        } catch (RuntimeException e) {
+            cursor.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void deliverResult(Cursor cursor) {
+        if (!isReset() && cursor instanceof ForecastCursor) {
+            mDelivered = ((ForecastCursor) cursor).getRows();
+        }
+        super.deliverResult(cursor);
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mDayReceiver == null) {
+            mDayReceiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    // This may run before SunshineApp's own receiver
+                    EpochDays.invalidate();
+                    FormattedStrings.invalidate();
+                    Uri uri = getUri();
+                    setUri(WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                            WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                            System.currentTimeMillis()));
+                    onContentChanged();
+                }
+            };
+            IntentFilter filter = new IntentFilter(Intent.ACTION_DATE_CHANGED);
+            filter.addAction(Intent.ACTION_TIME_CHANGED);
+            filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+            filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+            getContext().registerReceiver(mDayReceiver, filter);
+        }
+        super.onStartLoading();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        mDelivered = null;
+        if (mDayReceiver != null) {
+            getContext().unregisterReceiver(mDayReceiver);
+            mDayReceiver = null;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+
+/**
+ * One forecast list item with everything {@link ForecastAdapter} shows already formatted, so
+ * binding a row only assigns strings to views.
+ *
+ * Rows are built by {@link ForecastLoader} on its background thread.  They capture the units,
+ * art pack, locale, time zone and date at load time.  Changing the units or the art pack
+ * notifies the weather URI, which reloads them; the loader reloads them itself when the date,
+ * time zone or locale changes.
+ */
+final class ForecastRow {
+    final long mDate;
+    final int mWeatherId;
+
+    // "Tomorrow", "Wednesday" or "Mon Jun 08"; mLongDay is "Today, June 08" for today and the
+    // same as mDay for any other day
+    final String mDay;
+    final String mLongDay;
+
+    final String mDescription;
+    final String mDescriptionA11y;
+    final String mHigh;
+    final String mHighA11y;
+    final String mLow;
+    final String mLowA11y;
+
+    // The art is shown in the today layout, the icon in the others
+    final int mArtResource;
+    final int mIconResource;
+    // Null when the app's own graphics are used
+    final String mArtUrl;
+
+    private ForecastRow(Context context, Cursor cursor, boolean isMetric, boolean localGraphics) {
+        mDate = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        mWeatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+
+        mDay = Utility.getFriendlyDayString(context, mDate, false);
+        String longDay = Utility.getFriendlyDayString(context, mDate, true);
+        mLongDay = longDay.equals(mDay) ? mDay : longDay;
+
+        mDescription = Utility.getStringForWeatherCondition(context, mWeatherId);
+        mDescriptionA11y = context.getString(R.string.a11y_forecast, mDescription);
+        mHigh = Utility.formatTemperature(context,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP), isMetric);
+        mHighA11y = context.getString(R.string.a11y_high_temp, mHigh);
+        mLow = Utility.formatTemperature(context,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP), isMetric);
+        mLowA11y = context.getString(R.string.a11y_low_temp, mLow);
+
+        mArtResource = Utility.getArtResourceForWeatherCondition(mWeatherId);
+        mIconResource = Utility.getIconResourceForWeatherCondition(mWeatherId);
+        mArtUrl = localGraphics ? null
+                : Utility.getArtUrlForWeatherCondition(context, mWeatherId);
+    }
+
+    /**
+     * @return whether the two rows look the same on screen
+     */
+    boolean sameContent(ForecastRow other) {
+        return mWeatherId == other.mWeatherId
+                && mDay.equals(other.mDay)
+                && mLongDay.equals(other.mLongDay)
+                && mDescription.equals(other.mDescription)
+                && mHigh.equals(other.mHigh)
+                && mLow.equals(other.mLow)
+                && (mArtUrl == null ? other.mArtUrl == null : mArtUrl.equals(other.mArtUrl));
+    }
+
+    /**
+     * Formats every row of a cursor over {@link ForecastFragment}'s columns.  Reads the
+     * preferences once for the whole list.
+     */
+    static ForecastRow[] fromCursor(Context context, Cursor cursor) {
+        boolean isMetric = Utility.isMetric(context);
+        boolean localGraphics = Utility.usingLocalGraphics(context);
+        ForecastRow[] rows = new ForecastRow[cursor.getCount()];
+        for (int i = 0; i < rows.length; i++) {
+            cursor.moveToPosition(i);
+            rows[i] = new ForecastRow(context, cursor, isMetric, localGraphics);
+        }
+        cursor.moveToPosition(-1);
+        return rows;
+    }
+}
@@ -0,0 +1,279 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+
+import com.example.android.sunshine.app.data.EpochDays;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The temperature and day strings the list, detail pane, widgets, notification and wear
+ * replies show, formatted once and then shared.
+ *
+ * Temperatures are kept by the whole degree they round to, in the units shown, so a high of
+ * 21 is formatted once however many forecasts have it.  The formatter rounds halves away
+ * from zero and shows "-0" for values just below zero; "-0" has its own slot, and values too
+ * close to a half to be sure which way they round, or far outside any weather, are formatted
+ * every time.  Metric and imperial temperatures format the same way, so they share one table,
+ * and a units change never leaves a stale string.
+ *
+ * Day labels are kept by epoch day, for a window of days around today.  "Today" and
+ * "Tomorrow" depend on the current day, so the labels are dropped when a new day starts, as
+ * well as when the locale or the time zone changes.  {@link #invalidate()} drops everything;
+ * {@link SunshineApp} calls it for the system's locale, time zone and clock broadcasts.
+ *
+ * The tables are filled in as strings are asked for, and a change of locale, zone or day swaps
+ * in a new, empty table rather than clearing the old one, so a thread still formatting for the
+ * old settings only writes to a table nobody reads any more.
+ */
+final class FormattedStrings {
+
+    // Temperatures from -LIMIT to LIMIT degrees are kept
+    private static final int LIMIT = 150;
+    private static final int MINUS_ZERO = 2 * LIMIT + 1;
+    // How close to a half a temperature can be and still be rounded here
+    private static final double HALF_MARGIN = 1e-6;
+
+    // Day labels from DAYS_BEFORE days ago until WINDOW - DAYS_BEFORE days from now are kept
+    private static final int DAYS_BEFORE = 7;
+    private static final int WINDOW = 64;
+
+    // Kinds of day label
+    private static final int FRIENDLY = 0;
+    private static final int FRIENDLY_LONG_TODAY = 1;
+    private static final int FULL_FRIENDLY = 2;
+    private static final int DAY_NAME = 3;
+    private static final int MONTH_DAY = 4;
+    private static final int LABEL_KINDS = 5;
+
+    /**
+     * Temperature strings for one locale and format, by slot.
+     */
+    private static final class Temperatures {
+        final Locale mLocale;
+        final String mFormat;
+        final String[] mStrings = new String[MINUS_ZERO + 1];
+
+        Temperatures(Locale locale, String format) {
+            mLocale = locale;
+            mFormat = format;
+        }
+    }
+
+    /**
+     * Day labels for one locale, time zone and day, by kind and then by day.
+     */
+    private static final class Days {
+        final Locale mLocale;
+        final TimeZone mZone;
+        final int mToday;
+        final String[] mLabels = new String[LABEL_KINDS * WINDOW];
+
+        Days(Locale locale, TimeZone zone, int today) {
+            mLocale = locale;
+            mZone = zone;
+            mToday = today;
+        }
+    }
+
+    /**
+     * The formats of the day labels.  SimpleDateFormat isn't thread safe, so each thread (the
+     * UI, the loader, the widget's binder threads) builds its own once, and again only when
+     * the locale or the time zone changes.
+     */
+    private static final class DayFormats {
+        final Locale mLocale;
+        final TimeZone mZone;
+        final SimpleDateFormat mShortenedDate;
+        final SimpleDateFormat mDayName;
+        final SimpleDateFormat mMonthDay;
+
+        DayFormats(Locale locale, TimeZone zone) {
+            mLocale = locale;
+            mZone = zone;
+            mShortenedDate = create("EEE MMM dd", locale, zone);
+            mDayName = create("EEEE", locale, zone);
+            mMonthDay = create("MMMM dd", locale, zone);
+        }
+
+        private static SimpleDateFormat create(String pattern, Locale locale, TimeZone zone) {
+            SimpleDateFormat format = new SimpleDateFormat(pattern, locale);
+            format.setTimeZone(zone);
+            return format;
+        }
+    }
+
+    private static final ThreadLocal<DayFormats> sDayFormats = new ThreadLocal<DayFormats>();
+
+    private static volatile Temperatures sTemperatures;
+    private static volatile Days sDays;
+
+    private FormattedStrings() {
+    }
+
+    /**
+     * Drops every kept string.  Must be called when the locale, the time zone or the date
+     * changes.
+     */
+    static void invalidate() {
+        sTemperatures = null;
+        sDays = null;
+    }
+
+    /**
+     * @param degrees the temperature in the units shown
+     * @return the temperature with no decimals and a degree sign
+     */
+    static String getTemperature(Context context, double degrees) {
+        String format = context.getString(R.string.format_temperature);
+        int slot = temperatureSlot(degrees);
+        if (slot < 0) {
+            return String.format(format, degrees);
+        }
+        Locale locale = Locale.getDefault();
+        Temperatures temperatures = sTemperatures;
+        if (temperatures == null || !temperatures.mLocale.equals(locale)
+                || !temperatures.mFormat.equals(format)) {
+            temperatures = new Temperatures(locale, format);
+            sTemperatures = temperatures;
+        }
+        String temperature = temperatures.mStrings[slot];
+        if (temperature == null) {
+            temperature = String.format(format, degrees);
+            temperatures.mStrings[slot] = temperature;
+        }
+        return temperature;
+    }
+
+    /**
+     * @return the slot of the string a temperature formats to, or -1 if it isn't kept
+     */
+    private static int temperatureSlot(double degrees) {
+        if (Double.isNaN(degrees) || (degrees == 0 && 1 / degrees < 0)) {
+            // -0.0 is rare enough not to trust it to round like the values just below zero
+            return -1;
+        }
+        double magnitude = Math.abs(degrees);
+        if (magnitude > LIMIT) {
+            return -1;
+        }
+        double whole = Math.floor(magnitude);
+        double fraction = magnitude - whole;
+        if (Math.abs(fraction - 0.5) < HALF_MARGIN) {
+            return -1;
+        }
+        int rounded = (int) whole + (fraction > 0.5 ? 1 : 0);
+        if (rounded > LIMIT) {
+            return -1;
+        }
+        if (degrees < 0) {
+            return rounded == 0 ? MINUS_ZERO : LIMIT - rounded;
+        }
+        return LIMIT + rounded;
+    }
+
+    /**
+     * @see Utility#getFriendlyDayString(Context, long, boolean)
+     */
+    static String getFriendlyDay(Context context, long dateInMillis, boolean displayLongToday) {
+        return getLabel(context, displayLongToday ? FRIENDLY_LONG_TODAY : FRIENDLY,
+                dateInMillis);
+    }
+
+    /**
+     * @see Utility#getFullFriendlyDayString(Context, long)
+     */
+    static String getFullFriendlyDay(Context context, long dateInMillis) {
+        return getLabel(context, FULL_FRIENDLY, dateInMillis);
+    }
+
+    /**
+     * @see Utility#getDayName(Context, long)
+     */
+    static String getDayName(Context context, long dateInMillis) {
+        return getLabel(context, DAY_NAME, dateInMillis);
+    }
+
+    /**
+     * @see Utility#getFormattedMonthDay(Context, long)
+     */
+    static String getMonthDay(Context context, long dateInMillis) {
+        return getLabel(context, MONTH_DAY, dateInMillis);
+    }
+
+    private static String getLabel(Context context, int kind, long dateInMillis) {
+        int epochDay = EpochDays.epochDay(dateInMillis);
+        int today = EpochDays.today();
+        int offset = epochDay - today + DAYS_BEFORE;
+        if (offset < 0 || offset >= WINDOW) {
+            return formatLabel(context, kind, dateInMillis, epochDay, today);
+        }
+        Locale locale = Locale.getDefault();
+        TimeZone zone = EpochDays.getZone();
+        Days days = sDays;
+        if (days == null || days.mToday != today || days.mZone != zone
+                || !days.mLocale.equals(locale)) {
+            days = new Days(locale, zone, today);
+            sDays = days;
+        }
+        int slot = kind * WINDOW + offset;
+        String label = days.mLabels[slot];
+        if (label == null) {
+            label = formatLabel(context, kind, dateInMillis, epochDay, today);
+            days.mLabels[slot] = label;
+        }
+        return label;
+    }
+
+    private static String formatLabel(Context context, int kind, long dateInMillis,
+                                      int epochDay, int today) {
+        switch (kind) {
+            case FRIENDLY:
+            case FRIENDLY_LONG_TODAY:
+                // The day string for forecast uses the following logic:
+                // For today: "Today, June 8"
+                // For tomorrow:  "Tomorrow"
+                // For the next 5 days: "Wednesday" (just the day name)
+                // For all days after that: "Mon Jun 8"
+                if (kind == FRIENDLY_LONG_TODAY && epochDay == today) {
+                    return String.format(context.getString(
+                            R.string.format_full_friendly_date,
+                            context.getString(R.string.today),
+                            formatLabel(context, MONTH_DAY, dateInMillis, epochDay, today)));
+                } else if (epochDay < today + 7) {
+                    return formatLabel(context, DAY_NAME, dateInMillis, epochDay, today);
+                } else {
+                    return getDayFormats().mShortenedDate.format(dateInMillis);
+                }
+            case FULL_FRIENDLY:
+                return String.format(context.getString(
+                        R.string.format_full_friendly_date,
+                        formatLabel(context, DAY_NAME, dateInMillis, epochDay, today),
+                        formatLabel(context, MONTH_DAY, dateInMillis, epochDay, today)));
+            case DAY_NAME:
+                // "Today" and "Tomorrow", otherwise the day of the week (e.g "Wednesday")
+                if (epochDay == today) {
+                    return context.getString(R.string.today);
+                } else if (epochDay == today + 1) {
+                    return context.getString(R.string.tomorrow);
+                } else {
+                    return getDayFormats().mDayName.format(dateInMillis);
+                }
+            default:
+                return getDayFormats().mMonthDay.format(dateInMillis);
+        }
+    }
+
+    private static DayFormats getDayFormats() {
+        Locale locale = Locale.getDefault();
+        TimeZone zone = EpochDays.getZone();
+        DayFormats formats = sDayFormats.get();
+        if (formats == null || formats.mZone != zone || !formats.mLocale.equals(locale)) {
+            formats = new DayFormats(locale, zone);
+            sDayFormats.set(formats);
+        }
+        return formats;
+    }
+}
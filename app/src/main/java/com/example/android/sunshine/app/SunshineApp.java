@@ -1,7 +1,13 @@
 package com.example.android.sunshine.app;
 
 import android.app.Application;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+
+import com.example.android.sunshine.app.data.EpochDays;
+
 /**
  * Created by pcarrillo on 14/09/2015.
  */
@@ -13,6 +19,20 @@ public class SunshineApp extends Application{
     public void onCreate() {
         super.onCreate();
         mContext = this;
+
+        // EpochDays caches the time zone and FormattedStrings the day labels and temperatures;
+        // drop them when the user (or the network) changes the zone, the clock or the locale.
+        IntentFilter filter = new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED);
+        filter.addAction(Intent.ACTION_TIME_CHANGED);
+        filter.addAction(Intent.ACTION_DATE_CHANGED);
+        filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+        registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                EpochDays.invalidate();
+                FormattedStrings.invalidate();
+            }
+        }, filter);
     }
 
     public static Context getContext(){
@@ -0,0 +1,148 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+/**
+ * The settings the app reads on its hot paths (adapter binds, widgets, notifications, wear
+ * replies and the sync adapter), kept in one immutable snapshot per process.
+ *
+ * {@link #get} is a volatile read.  The snapshot is replaced whenever one of its preferences
+ * changes, by a single listener registered on first use.  SharedPreferences only keeps weak
+ * references to its listeners, so this one is held in a static field.  Preference change
+ * callbacks arrive on the main thread, after the write; code that reacts to a change in its own
+ * listener should call {@link #refresh} before reading, since the listeners run in no particular
+ * order.  Writes made through this class update the snapshot right away and are saved with
+ * {@link SharedPreferences.Editor#apply()}.
+ */
+public final class SunshineSettings {
+
+    private static volatile SunshineSettings sCurrent;
+    // Strong reference, see above
+    private static Listener sListener;
+
+    private final String mLocation;
+    private final boolean mMetric;
+    private final String mArtPack;
+    private final boolean mLocalGraphics;
+    private final int mLocationStatus;
+
+    private SunshineSettings(String location, boolean metric, String artPack,
+                             boolean localGraphics, int locationStatus) {
+        mLocation = location;
+        mMetric = metric;
+        mArtPack = artPack;
+        mLocalGraphics = localGraphics;
+        mLocationStatus = locationStatus;
+    }
+
+    /**
+     * Keeps the snapshot current, reading the preference keys once.
+     */
+    private static final class Listener
+            implements SharedPreferences.OnSharedPreferenceChangeListener {
+        final Context mContext;
+        final String mLocationKey;
+        final String mUnitsKey;
+        final String mArtPackKey;
+        final String mLocationStatusKey;
+
+        Listener(Context context) {
+            mContext = context;
+            mLocationKey = context.getString(R.string.pref_location_key);
+            mUnitsKey = context.getString(R.string.pref_units_key);
+            mArtPackKey = context.getString(R.string.pref_art_pack_key);
+            mLocationStatusKey = context.getString(R.string.pref_location_status_key);
+        }
+
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+            if (mLocationKey.equals(key) || mUnitsKey.equals(key) || mArtPackKey.equals(key)
+                    || mLocationStatusKey.equals(key)) {
+                refresh(mContext);
+            }
+        }
+    }
+
+    /**
+     * @return the current settings; never blocks once the first call has read them
+     */
+    public static SunshineSettings get(Context context) {
+        SunshineSettings current = sCurrent;
+        if (current == null) {
+            current = refresh(context);
+        }
+        return current;
+    }
+
+    /**
+     * Reads the settings again from the preferences and returns them.
+     */
+    public static synchronized SunshineSettings refresh(Context context) {
+        Context appContext = context.getApplicationContext();
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(appContext);
+        if (sListener == null) {
+            sListener = new Listener(appContext);
+            sp.registerOnSharedPreferenceChangeListener(sListener);
+        }
+        sCurrent = read(appContext, sp);
+        return sCurrent;
+    }
+
+    @SuppressWarnings("ResourceType")
+    private static SunshineSettings read(Context context, SharedPreferences sp) {
+        String metric = context.getString(R.string.pref_units_metric);
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        String artPack = sp.getString(context.getString(R.string.pref_art_pack_key),
+                sunshineArtPack);
+        return new SunshineSettings(
+                sp.getString(context.getString(R.string.pref_location_key),
+                        context.getString(R.string.pref_location_default)),
+                sp.getString(context.getString(R.string.pref_units_key), metric).equals(metric),
+                artPack,
+                artPack.equals(sunshineArtPack),
+                sp.getInt(context.getString(R.string.pref_location_status_key),
+                        SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN));
+    }
+
+    /**
+     * Sets the location status.  The snapshot changes right away; the preference is written in
+     * the background, so this is safe to call from any thread.
+     */
+    public static synchronized void setLocationStatus(Context context,
+            @SunshineSyncAdapter.LocationStatus int locationStatus) {
+        SunshineSettings current = get(context);
+        sCurrent = new SunshineSettings(current.mLocation, current.mMetric, current.mArtPack,
+                current.mLocalGraphics, locationStatus);
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putInt(context.getString(R.string.pref_location_status_key), locationStatus)
+                .apply();
+    }
+
+    public String getLocation() {
+        return mLocation;
+    }
+
+    public boolean isMetric() {
+        return mMetric;
+    }
+
+    /**
+     * @return the art pack's URL format, or the app's own pack
+     */
+    public String getArtPack() {
+        return mArtPack;
+    }
+
+    public boolean usingLocalGraphics() {
+        return mLocalGraphics;
+    }
+
+    @SuppressWarnings("ResourceType")
+    public @SunshineSyncAdapter.LocationStatus int getLocationStatus() {
+        return mLocationStatus;
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+
+import java.util.Locale;
+
+/**
+ * What the app shows for each OpenWeatherMap condition code, in tables indexed by the code.
+ *
+ * Codes are below 1000, so every lookup is an array read.  The icon, art and image tables are
+ * built once.  Condition names are kept per locale and filled in on first use, and art URLs
+ * are formatted once per art pack; both are rebuilt when the locale or the pack changes.  A
+ * code with no mapping gets the same answer the old if/else ladders gave it: -1, null or the
+ * "unknown" string.  That includes the ladders' quirk of showing 761 (dust) as fog, since the
+ * fog range was checked first.
+ *
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+final class WeatherConditions {
+
+    static final int CODES = 1000;
+
+    // Kinds of weather; each has an icon, art and an image
+    private static final int NONE = 0;
+    private static final int STORM = 1;
+    private static final int LIGHT_RAIN = 2;
+    private static final int RAIN = 3;
+    private static final int SNOW = 4;
+    private static final int FOG = 5;
+    private static final int CLEAR = 6;
+    private static final int LIGHT_CLOUDS = 7;
+    private static final int CLOUDS = 8;
+
+    private static final int[] ICONS = {
+            -1,
+            R.drawable.ic_storm,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_fog,
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy
+    };
+
+    private static final int[] ARTS = {
+            -1,
+            R.drawable.art_storm,
+            R.drawable.art_light_rain,
+            R.drawable.art_rain,
+            R.drawable.art_snow,
+            R.drawable.art_fog,
+            R.drawable.art_clear,
+            R.drawable.art_light_clouds,
+            R.drawable.art_clouds
+    };
+
+    // The names the art packs use in their URLs
+    private static final String[] ART_NAMES = {
+            null, "storm", "light_rain", "rain", "snow", "fog", "clear", "light_clouds", "clouds"
+    };
+
+    private static final String[] IMAGE_URLS = {
+            null,
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg"
+    };
+
+    // The kind of weather for each code
+    private static final byte[] KINDS = new byte[CODES];
+
+    // The condition name's string resource for each code, 0 if there is none
+    private static final int[] STRING_IDS = new int[CODES];
+
+    static {
+        // In the order the old ladders checked them; a code keeps the first kind it gets
+        setKind(200, 232, STORM);
+        setKind(300, 321, LIGHT_RAIN);
+        setKind(500, 504, RAIN);
+        setKind(511, 511, SNOW);
+        setKind(520, 531, RAIN);
+        setKind(600, 622, SNOW);
+        setKind(701, 761, FOG);
+        setKind(761, 761, STORM);
+        setKind(781, 781, STORM);
+        setKind(800, 800, CLEAR);
+        setKind(801, 801, LIGHT_CLOUDS);
+        setKind(802, 804, CLOUDS);
+
+        for (int code = 200; code <= 232; code++) {
+            STRING_IDS[code] = R.string.condition_2xx;
+        }
+        for (int code = 300; code <= 321; code++) {
+            STRING_IDS[code] = R.string.condition_3xx;
+        }
+        int[] names = {
+                500, R.string.condition_500, 501, R.string.condition_501,
+                502, R.string.condition_502, 503, R.string.condition_503,
+                504, R.string.condition_504, 511, R.string.condition_511,
+                520, R.string.condition_520, 531, R.string.condition_531,
+                600, R.string.condition_600, 601, R.string.condition_601,
+                602, R.string.condition_602, 611, R.string.condition_611,
+                612, R.string.condition_612, 615, R.string.condition_615,
+                616, R.string.condition_616, 620, R.string.condition_620,
+                621, R.string.condition_621, 622, R.string.condition_622,
+                701, R.string.condition_701, 711, R.string.condition_711,
+                721, R.string.condition_721, 731, R.string.condition_731,
+                741, R.string.condition_741, 751, R.string.condition_751,
+                761, R.string.condition_761, 762, R.string.condition_762,
+                771, R.string.condition_771, 781, R.string.condition_781,
+                800, R.string.condition_800, 801, R.string.condition_801,
+                802, R.string.condition_802, 803, R.string.condition_803,
+                804, R.string.condition_804, 900, R.string.condition_900,
+                901, R.string.condition_901, 902, R.string.condition_902,
+                903, R.string.condition_903, 904, R.string.condition_904,
+                905, R.string.condition_905, 906, R.string.condition_906,
+                951, R.string.condition_951, 952, R.string.condition_952,
+                953, R.string.condition_953, 954, R.string.condition_954,
+                955, R.string.condition_955, 956, R.string.condition_956,
+                957, R.string.condition_957, 958, R.string.condition_958,
+                959, R.string.condition_959, 960, R.string.condition_960,
+                961, R.string.condition_961, 962, R.string.condition_962
+        };
+        for (int i = 0; i < names.length; i += 2) {
+            STRING_IDS[names[i]] = names[i + 1];
+        }
+    }
+
+    private static void setKind(int first, int last, int kind) {
+        for (int code = first; code <= last; code++) {
+            if (KINDS[code] == NONE) {
+                KINDS[code] = (byte) kind;
+            }
+        }
+    }
+
+    /**
+     * Condition names in one locale, filled in as codes are asked for.  Strings are immutable,
+     * so a slot written by two threads at once holds the same name either way.
+     */
+    private static final class Names {
+        final Locale mLocale;
+        final String[] mNames = new String[CODES];
+
+        Names(Locale locale) {
+            mLocale = locale;
+        }
+    }
+
+    /**
+     * Art URLs for one art pack, by kind.
+     */
+    private static final class ArtUrls {
+        final String mArtPack;
+        final String[] mUrls = new String[ART_NAMES.length];
+
+        ArtUrls(String artPack) {
+            mArtPack = artPack;
+            for (int kind = STORM; kind < ART_NAMES.length; kind++) {
+                mUrls[kind] = String.format(Locale.US, artPack, ART_NAMES[kind]);
+            }
+        }
+    }
+
+    private static volatile Names sNames;
+    private static volatile ArtUrls sArtUrls;
+
+    private WeatherConditions() {
+    }
+
+    private static int kind(int weatherId) {
+        return weatherId >= 0 && weatherId < CODES ? KINDS[weatherId] : NONE;
+    }
+
+    static int getIconResource(int weatherId) {
+        return ICONS[kind(weatherId)];
+    }
+
+    static int getArtResource(int weatherId) {
+        return ARTS[kind(weatherId)];
+    }
+
+    static String getImageUrl(int weatherId) {
+        return IMAGE_URLS[kind(weatherId)];
+    }
+
+    /**
+     * @param artPack the art pack's URL format
+     */
+    static String getArtUrl(String artPack, int weatherId) {
+        int kind = kind(weatherId);
+        if (kind == NONE) {
+            return null;
+        }
+        ArtUrls urls = sArtUrls;
+        if (urls == null || (urls.mArtPack != artPack && !urls.mArtPack.equals(artPack))) {
+            urls = new ArtUrls(artPack);
+            sArtUrls = urls;
+        }
+        return urls.mUrls[kind];
+    }
+
+    static String getName(Context context, int weatherId) {
+        if (weatherId < 0 || weatherId >= CODES) {
+            return context.getString(R.string.condition_unknown, weatherId);
+        }
+        Locale locale = context.getResources().getConfiguration().locale;
+        if (locale == null) {
+            locale = Locale.getDefault();
+        }
+        Names names = sNames;
+        if (names == null || (names.mLocale != locale && !names.mLocale.equals(locale))) {
+            names = new Names(locale);
+            sNames = names;
+        }
+        String name = names.mNames[weatherId];
+        if (name == null) {
+            int stringId = STRING_IDS[weatherId];
+            name = stringId != 0 ? context.getString(stringId)
+                    : context.getString(R.string.condition_unknown, weatherId);
+            names.mNames[weatherId] = name;
+        }
+        return name;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.TimeZone;
+
+/**
+ * Day arithmetic in the device's time zone, without {@link android.text.format.Time}.
+ *
+ * An epoch day is the number of local days since January 1st 1970; day 0 is 1970-01-01.  It
+ * is Time's Julian day minus {@link android.text.format.Time#EPOCH_JULIAN_DAY}.
+ *
+ * Nothing here allocates except when the zone changes or a new day starts: the default zone
+ * is looked up once (TimeZone.getDefault() returns a copy every call) and the bounds of the
+ * current day are kept, so dates from today are answered with two comparisons.  Call
+ * {@link #invalidate()} when the device's time zone changes.
+ */
+public final class EpochDays {
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final long HALF_DAY_IN_MILLIS = DAY_IN_MILLIS / 2;
+
+    /**
+     * The local day containing "now", for the zone it was computed in.
+     */
+    private static final class Day {
+        final TimeZone mZone;
+        final int mEpochDay;
+        final long mStart;
+        final long mEnd;
+
+        Day(TimeZone zone, int epochDay, long start, long end) {
+            mZone = zone;
+            mEpochDay = epochDay;
+            mStart = start;
+            mEnd = end;
+        }
+    }
+
+    private static volatile TimeZone sZone;
+    private static volatile Day sToday;
+
+    private EpochDays() {
+    }
+
+    /**
+     * Forgets the cached zone and day.  Must be called when the default time zone changes.
+     */
+    public static void invalidate() {
+        sZone = null;
+        sToday = null;
+    }
+
+    /**
+     * Returns the device's time zone.  The instance is shared: don't modify it.
+     */
+    public static TimeZone getZone() {
+        TimeZone zone = sZone;
+        if (zone == null) {
+            zone = TimeZone.getDefault();
+            sZone = zone;
+        }
+        return zone;
+    }
+
+    /**
+     * @return today's epoch day
+     */
+    public static int today() {
+        return getToday().mEpochDay;
+    }
+
+    /**
+     * @return the local epoch day the given time falls on
+     */
+    public static int epochDay(long millis) {
+        Day today = getToday();
+        if (millis >= today.mStart && millis < today.mEnd) {
+            return today.mEpochDay;
+        }
+        return epochDay(today.mZone, millis);
+    }
+
+    /**
+     * Returns the first millisecond of the local day the given time falls on: midnight, or the
+     * end of the DST gap on days where midnight doesn't exist.  This is what
+     * {@link WeatherContract#normalizeDate(long)} stores dates as.
+     */
+    public static long startOfDay(long millis) {
+        Day today = getToday();
+        if (millis >= today.mStart && millis < today.mEnd) {
+            return today.mStart;
+        }
+        return startOfEpochDay(today.mZone, epochDay(today.mZone, millis));
+    }
+
+    /**
+     * @return the first millisecond of the given local epoch day
+     */
+    public static long startOfEpochDay(int epochDay) {
+        Day today = getToday();
+        if (epochDay == today.mEpochDay) {
+            return today.mStart;
+        }
+        return startOfEpochDay(today.mZone, epochDay);
+    }
+
+    private static Day getToday() {
+        TimeZone zone = getZone();
+        long now = System.currentTimeMillis();
+        Day today = sToday;
+        if (today == null || today.mZone != zone || now < today.mStart || now >= today.mEnd) {
+            int epochDay = epochDay(zone, now);
+            today = new Day(zone, epochDay, startOfEpochDay(zone, epochDay),
+                    startOfEpochDay(zone, epochDay + 1));
+            sToday = today;
+        }
+        return today;
+    }
+
+    private static int epochDay(TimeZone zone, long millis) {
+        return (int) floorDiv(millis + zone.getOffset(millis), DAY_IN_MILLIS);
+    }
+
+    private static long startOfEpochDay(TimeZone zone, int epochDay) {
+        long midnightUtc = epochDay * DAY_IN_MILLIS;
+        // Local midnight is midnightUtc minus the offset in effect at that moment.  Try the
+        // offsets of the evening before and of midday: a candidate is a real midnight if its
+        // own offset is the one it was computed with, and if both are (the clocks went back
+        // over midnight) the day starts at the first.  If neither is, midnight was skipped and
+        // the day starts when the clocks moved forward, at the candidate of the evening offset.
+        long standardMidnight = midnightUtc - zone.getRawOffset();
+        int eveningOffset = zone.getOffset(standardMidnight - HALF_DAY_IN_MILLIS);
+        int middayOffset = zone.getOffset(standardMidnight + HALF_DAY_IN_MILLIS);
+        long evening = midnightUtc - eveningOffset;
+        if (zone.getOffset(evening) == eveningOffset) {
+            long midday = midnightUtc - middayOffset;
+            if (midday < evening && zone.getOffset(midday) == middayOffset) {
+                return midday;
+            }
+            return evening;
+        }
+        long midday = midnightUtc - middayOffset;
+        if (zone.getOffset(midday) == middayOffset) {
+            return midday;
+        }
+        return evening;
+    }
+
+    private static long floorDiv(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        if ((dividend % divisor != 0) && ((dividend < 0) != (divisor < 0))) {
+            quotient--;
+        }
+        return quotient;
+    }
+}
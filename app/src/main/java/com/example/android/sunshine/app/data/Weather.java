@@ -8,10 +8,11 @@ public class Weather {
     private int weatherId;
     private double cityLatitude;
     private double cityLongitude;
-    private String high;
-    private String low;
+    // Celsius
+    private double high;
+    private double low;
 
-    public Weather(int weatherId, double cityLatitude, double cityLongitude, String high, String low) {
+    public Weather(int weatherId, double cityLatitude, double cityLongitude, double high, double low) {
         this.weatherId = weatherId;
         this.cityLatitude = cityLatitude;
         this.cityLongitude = cityLongitude;
@@ -35,19 +36,19 @@ public class Weather {
         this.cityLongitude = cityLongitude;
     }
 
-    public String getHigh() {
+    public double getHigh() {
         return high;
     }
 
-    public void setHigh(String high) {
+    public void setHigh(double high) {
         this.high = high;
     }
 
-    public String getLow() {
+    public double getLow() {
         return low;
     }
 
-    public void setLow(String low) {
+    public void setLow(double low) {
         this.low = low;
     }
 
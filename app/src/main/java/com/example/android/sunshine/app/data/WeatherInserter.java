@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Inserts weather rows through a single compiled INSERT statement.
+ *
+ * {@link SQLiteDatabase#insert} builds and compiles a new statement for every row.  This class
+ * compiles one when it is created and only rebinds its arguments for each row, so it is meant
+ * to live for one transaction of {@link WeatherProvider#bulkInsert} or
+ * {@link WeatherProvider#applyBatch}.  Rows that don't have
+ * exactly the columns below go through {@link SQLiteDatabase#insert} instead, so they succeed
+ * or fail the same way they always did.
+ */
+class WeatherInserter {
+
+    private static final String LOG_TAG = WeatherInserter.class.getSimpleName();
+
+    // The bind index of each column is its position in this array plus one.
+    private static final String[] COLUMNS = new String[] {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final int BIND_LOC_KEY = 1;
+    private static final int BIND_DATE = 2;
+    private static final int BIND_FIRST_VALUE = 3;
+
+    private static final String SQL_INSERT;
+
+    static {
+        StringBuilder sql = new StringBuilder("INSERT INTO ")
+                .append(WeatherEntry.TABLE_NAME).append(" (");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            sql.append(i > 0 ? "," : "").append(COLUMNS[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+        SQL_INSERT = sql.append(')').toString();
+    }
+
+    private final SQLiteDatabase mDb;
+    private final SQLiteStatement mStatement;
+
+    WeatherInserter(SQLiteDatabase db) {
+        mDb = db;
+        mStatement = db.compileStatement(SQL_INSERT);
+    }
+
+    /**
+     * Inserts one weather row, normalizing its date.
+     *
+     * @return the row ID of the new row, or -1 if it couldn't be inserted
+     */
+    long insert(ContentValues values) {
+        Long locationId = values.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherEntry.COLUMN_DATE);
+        if (locationId == null || date == null || !hasOnlyKnownColumns(values)) {
+            if (date != null) {
+                values.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(date));
+            }
+            return mDb.insert(WeatherEntry.TABLE_NAME, null, values);
+        }
+
+        mStatement.bindLong(BIND_LOC_KEY, locationId);
+        mStatement.bindLong(BIND_DATE, WeatherContract.normalizeDate(date));
+        for (int i = BIND_FIRST_VALUE - 1; i < COLUMNS.length; i++) {
+            DatabaseUtils.bindObjectToProgram(mStatement, i + 1, values.get(COLUMNS[i]));
+        }
+        try {
+            return mStatement.executeInsert();
+        } catch (SQLException e) {
+            // SQLiteDatabase.insert reports failures the same way
+            Log.e(LOG_TAG, "Error inserting " + values, e);
+            return -1;
+        }
+    }
+
+    private static boolean hasOnlyKnownColumns(ContentValues values) {
+        if (values.size() != COLUMNS.length) {
+            return false;
+        }
+        for (String column : COLUMNS) {
+            if (!values.containsKey(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void close() {
+        mStatement.close();
+    }
+}
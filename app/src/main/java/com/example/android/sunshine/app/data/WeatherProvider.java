@@ -17,25 +17,40 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private WeatherQueryCache mQueryCache;
+
+    // Set on the thread running applyBatch, while its operations are applied
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<Batch>();
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    // The query builder and selections are package-private so that TestQueryPlans can check
+    // the plans of the exact queries the provider runs.
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -52,18 +67,18 @@ public class WeatherProvider extends ContentProvider {
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
@@ -83,14 +98,8 @@ public class WeatherProvider extends ContentProvider {
             selection = sLocationSettingWithStartDateSelection;
         }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                selection,
-                selectionArgs,
-                null,
-                null,
-                sortOrder
-        );
+        return queryThroughCache(uri, projection, sortOrder, selection, selectionArgs,
+                locationSetting, startDate == 0 ? Long.MIN_VALUE : startDate, Long.MAX_VALUE);
     }
 
     private Cursor getWeatherByLocationSettingAndDate(
@@ -98,14 +107,34 @@ public class WeatherProvider extends ContentProvider {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        return queryThroughCache(uri, projection, sortOrder, sLocationSettingAndDaySelection,
+                new String[]{locationSetting, Long.toString(date)}, locationSetting, date, date);
+    }
+
+    /**
+     * Answers a location query from the query cache, or runs it and stores its result.
+     *
+     * @param fromDate the first date the result can contain
+     * @param toDate the last date the result can contain
+     */
+    private Cursor queryThroughCache(Uri uri, String[] projection, String sortOrder,
+                                     String selection, String[] selectionArgs,
+                                     String locationSetting, long fromDate, long toDate) {
+        String key = WeatherQueryCache.buildKey(uri, projection, sortOrder);
+        Cursor cursor = mQueryCache.get(key);
+        if (cursor != null) {
+            return cursor;
+        }
+        long generation = mQueryCache.getGeneration();
+        cursor = sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
                 projection,
-                sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
+                selection,
+                selectionArgs,
                 null,
                 null,
                 sortOrder
         );
+        return mQueryCache.put(key, generation, locationSetting, fromDate, toDate, cursor);
     }
 
     /*
@@ -140,6 +169,7 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        mQueryCache = new WeatherQueryCache(WeatherQueryCache.DEFAULT_MAX_BYTES);
         return true;
     }
 
@@ -230,28 +260,51 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
 
-        switch (match) {
-            case WEATHER: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
-                if ( _id > 0 )
-                    returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
-                else
-                    throw new android.database.SQLException("Failed to insert row into " + uri);
-                break;
-            }
-            case LOCATION: {
-                long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
-                if ( _id > 0 )
-                    returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
-                else
-                    throw new android.database.SQLException("Failed to insert row into " + uri);
-                break;
+        boolean invalidate = mQueryCache.beginWrite();
+        try {
+            switch (match) {
+                case WEATHER: {
+                    normalizeDate(values);
+                    if (invalidate) {
+                        invalidateWeather(db, values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                                values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+                    }
+                    long _id;
+                    Batch batch = mBatch.get();
+                    if (batch != null) {
+                        // A sync inserts its days one operation at a time; share one compiled
+                        // statement between them like bulkInsert does.
+                        if (batch.mInserter == null) {
+                            batch.mInserter = new WeatherInserter(db);
+                        }
+                        _id = batch.mInserter.insert(values);
+                    } else {
+                        _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                    }
+                    if ( _id > 0 )
+                        returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
+                    else
+                        throw new android.database.SQLException("Failed to insert row into " + uri);
+                    break;
+                }
+                case LOCATION: {
+                    if (invalidate) {
+                        invalidateLocation(values);
+                    }
+                    long _id = upsertLocation(db, values);
+                    if ( _id > 0 )
+                        returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
+                    else
+                        throw new android.database.SQLException("Failed to insert row into " + uri);
+                    break;
+                }
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
             }
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        } finally {
+            mQueryCache.endWrite();
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
@@ -260,27 +313,74 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
-        // this makes delete all rows return the number of rows deleted
-        if ( null == selection ) selection = "1";
-        switch (match) {
-            case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            case LOCATION:
-                rowsDeleted = db.delete(
-                        WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        boolean invalidate = mQueryCache.beginWrite();
+        try {
+            if (invalidate && null == selection) {
+                mQueryCache.clear();
+                invalidate = false;
+            }
+            // this makes delete all rows return the number of rows deleted
+            if ( null == selection ) selection = "1";
+            switch (match) {
+                case WEATHER:
+                    if (invalidate) {
+                        invalidateWeather(db, selection, selectionArgs, false);
+                    }
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                case LOCATION:
+                    if (invalidate) {
+                        invalidateLocations(db, selection, selectionArgs);
+                    } else {
+                        // Row ids may be reused by the next locations inserted
+                        mQueryCache.forgetLocationSettings();
+                    }
+                    rowsDeleted = db.delete(
+                            WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+            }
+        } finally {
+            mQueryCache.endWrite();
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
 
+    /**
+     * Inserts a location, or updates the row that already has its location setting, so a sync
+     * can write its location without looking it up first.
+     *
+     * @return the row ID of the location, or -1 if it could not be written
+     */
+    private long upsertLocation(SQLiteDatabase db, ContentValues values) {
+        String locationSetting =
+                values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        if (locationSetting != null) {
+            Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    new String[]{WeatherContract.LocationEntry._ID},
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                    new String[]{locationSetting}, null, null, null);
+            try {
+                if (cursor.moveToFirst()) {
+                    long locationId = cursor.getLong(0);
+                    db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                            WeatherContract.LocationEntry._ID + " = ?",
+                            new String[]{Long.toString(locationId)});
+                    return locationId;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+    }
+
     private void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
@@ -296,21 +396,41 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
 
-        switch (match) {
-            case WEATHER:
-                normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
-            case LOCATION:
-                rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        boolean invalidate = mQueryCache.beginWrite();
+        try {
+            switch (match) {
+                case WEATHER:
+                    normalizeDate(values);
+                    if (invalidate) {
+                        // Updated rows may move to another date or location; drop everything
+                        // cached for the locations they are in and the one they move to.
+                        invalidateWeather(db, selection, selectionArgs, true);
+                        Long newLocationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                        if (newLocationId != null) {
+                            invalidateWeather(db, newLocationId, null);
+                        }
+                    }
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
+                            selectionArgs);
+                    break;
+                case LOCATION:
+                    if (invalidate) {
+                        invalidateLocations(db, selection, selectionArgs);
+                        invalidateLocation(values);
+                    } else {
+                        mQueryCache.forgetLocationSettings();
+                    }
+                    rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
+                            selectionArgs);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+            }
+        } finally {
+            mQueryCache.endWrite();
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
@@ -321,27 +441,242 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
+                boolean invalidate = mQueryCache.beginWrite();
                 int returnCount = 0;
                 try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
+                    if (invalidate) {
+                        invalidateWeather(db, values);
+                    }
+                    beginWriteTransaction(db);
+                    // One compiled INSERT for the whole transaction instead of one per row
+                    WeatherInserter inserter = new WeatherInserter(db);
+                    try {
+                        for (ContentValues value : values) {
+                            long _id = inserter.insert(value);
+                            if (_id != -1) {
+                                returnCount++;
+                            }
                         }
+                        db.setTransactionSuccessful();
+                    } finally {
+                        inserter.close();
+                        db.endTransaction();
                     }
-                    db.setTransactionSuccessful();
                 } finally {
-                    db.endTransaction();
+                    mQueryCache.endWrite();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyChange(uri);
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Applies the operations in one transaction: either all of them are written or, if one
+     * fails, none are.  The operations don't notify observers themselves; once the batch has
+     * committed there is a single notification for everything it changed.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Batch batch = new Batch();
+        ContentProviderResult[] results;
+        boolean committed = false;
+
+        // Hold a write open for the whole batch: the operations' own writes end before the
+        // transaction commits, and no query may store what it read in between.
+        mQueryCache.beginWrite();
+        mBatch.set(batch);
+        try {
+            beginWriteTransaction(db);
+            try {
+                results = super.applyBatch(operations);
+                db.setTransactionSuccessful();
+                committed = true;
+            } finally {
+                if (batch.mInserter != null) {
+                    batch.mInserter.close();
+                }
+                db.endTransaction();
+            }
+        } finally {
+            mBatch.remove();
+            if (!committed) {
+                // Locations inserted by the batch were rolled back and their ids may be reused
+                mQueryCache.forgetLocationSettings();
+            }
+            mQueryCache.endWrite();
+        }
+
+        if (batch.mChangedUris.size() == 1) {
+            notifyChange(batch.mChangedUris.iterator().next());
+        } else if (batch.mChangedUris.size() > 1) {
+            // Observers of every URI below the base one hear about this
+            notifyChange(WeatherContract.BASE_CONTENT_URI);
+        }
+        return results;
+    }
+
+    // Notifies observers of the URI now, or when the batch in progress on this thread commits
+    private void notifyChange(Uri uri) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.mChangedUris.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * The state of one applyBatch call.
+     */
+    private static class Batch {
+        final LinkedHashSet<Uri> mChangedUris = new LinkedHashSet<Uri>();
+        WeatherInserter mInserter;
+    }
+
+    /**
+     * Returns the query cache, so tests and debugging code can inspect its hit rate and size.
+     */
+    WeatherQueryCache getQueryCache() {
+        return mQueryCache;
+    }
+
+    /*
+        Query cache invalidation.  These run between WeatherQueryCache.beginWrite and endWrite,
+        before the write itself: no result is stored while a write is in progress, so dropping
+        the affected results first is enough.
+     */
+
+    private String getLocationSetting(SQLiteDatabase db, long locationId) {
+        String locationSetting = mQueryCache.getLocationSetting(locationId);
+        if (locationSetting == null) {
+            Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                    WeatherContract.LocationEntry._ID + " = ?",
+                    new String[]{Long.toString(locationId)}, null, null, null);
+            try {
+                if (cursor.moveToFirst()) {
+                    locationSetting = cursor.getString(0);
+                    mQueryCache.putLocationSetting(locationId, locationSetting);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return locationSetting;
+    }
+
+    // Drops the cached results for one day of a location, or all its days if date is null
+    private void invalidateWeather(SQLiteDatabase db, Long locationId, Long date) {
+        if (locationId == null) {
+            return;
+        }
+        String locationSetting = getLocationSetting(db, locationId);
+        if (locationSetting == null) {
+            return;
+        }
+        if (date == null) {
+            mQueryCache.invalidate(locationSetting);
+        } else {
+            mQueryCache.invalidate(locationSetting, date, date);
+        }
+    }
+
+    // Drops the cached results for the locations and dates of rows about to be bulk inserted
+    private void invalidateWeather(SQLiteDatabase db, ContentValues[] values) {
+        HashMap<Long, long[]> ranges = new HashMap<Long, long[]>();
+        for (ContentValues value : values) {
+            Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+            Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+            if (locationId == null || date == null) {
+                continue;
+            }
+            long[] range = ranges.get(locationId);
+            if (range == null) {
+                ranges.put(locationId, new long[]{date, date});
+            } else {
+                range[0] = Math.min(range[0], date);
+                range[1] = Math.max(range[1], date);
+            }
+        }
+        for (Map.Entry<Long, long[]> range : ranges.entrySet()) {
+            String locationSetting = getLocationSetting(db, range.getKey());
+            if (locationSetting != null) {
+                // Normalizing only ever moves a date back to the start of its day
+                mQueryCache.invalidate(locationSetting,
+                        WeatherContract.normalizeDate(range.getValue()[0]),
+                        WeatherContract.normalizeDate(range.getValue()[1]));
+            }
+        }
+    }
+
+    // Drops the cached results for the rows matching a weather update or delete
+    private void invalidateWeather(SQLiteDatabase db, String selection, String[] selectionArgs,
+                                   boolean wholeLocations) {
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{
+                        WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        "MIN(" + WeatherContract.WeatherEntry.COLUMN_DATE + ")",
+                        "MAX(" + WeatherContract.WeatherEntry.COLUMN_DATE + ")"},
+                selection, selectionArgs, WeatherContract.WeatherEntry.COLUMN_LOC_KEY, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                String locationSetting = getLocationSetting(db, cursor.getLong(0));
+                if (locationSetting == null) {
+                    continue;
+                }
+                if (wholeLocations) {
+                    mQueryCache.invalidate(locationSetting);
+                } else {
+                    mQueryCache.invalidate(locationSetting, cursor.getLong(1), cursor.getLong(2));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Drops the cached results joined with a location row that is about to be written
+    private void invalidateLocation(ContentValues values) {
+        String locationSetting =
+                values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        if (locationSetting != null) {
+            mQueryCache.invalidate(locationSetting);
+        }
+    }
+
+    // Drops the cached results joined with the locations matching an update or delete
+    private void invalidateLocations(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                selection, selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                mQueryCache.invalidate(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        // Row ids may now point to other locations
+        mQueryCache.forgetLocationSettings();
+    }
+
+    /**
+     * Starts a transaction for a batch of writes.  In WAL mode an IMMEDIATE transaction is
+     * enough to keep other writers out, and readers carry on against the last commit.
+     */
+    @TargetApi(11)
+    private static void beginWriteTransaction(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            db.beginTransactionNonExclusive();
+        } else {
+            db.beginTransaction();
+        }
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.support.v4.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the results of the provider's location queries in memory, so the URIs that the
+ * notification, widgets, Muzei, the wear bridge and the forecast list keep asking for don't
+ * run the same join again.
+ *
+ * Results are keyed by URI, projection and sort order, and stored fully read into immutable
+ * rows; every hit gets its own light cursor over those rows.  The provider reports each write
+ * as the location and date range it touched and only the results overlapping it are dropped.
+ *
+ * A query that runs while a write is in progress, or that started before a write ended, is
+ * answered but not stored, so a result read before a commit can never outlive it.
+ */
+class WeatherQueryCache {
+
+    static final int DEFAULT_MAX_BYTES = 256 * 1024;
+
+    // Rough per-object overheads used to estimate the memory a result holds
+    private static final int OBJECT_BYTES = 16;
+    private static final int REFERENCE_BYTES = 4;
+
+    /**
+     * One materialized query result and the weather rows it depends on: the rows of
+     * mLocationSetting dated mFromDate to mToDate inclusive.
+     */
+    static final class Entry {
+        final String mLocationSetting;
+        final long mFromDate;
+        final long mToDate;
+        final String[] mColumns;
+        final Object[][] mRows;
+        // SQLite's own text for REAL values, so getString answers exactly as SQLite would
+        final String[][] mRealText;
+        final int mBytes;
+
+        Entry(String locationSetting, long fromDate, long toDate, String[] columns,
+              Object[][] rows, String[][] realText, int bytes) {
+            mLocationSetting = locationSetting;
+            mFromDate = fromDate;
+            mToDate = toDate;
+            mColumns = columns;
+            mRows = rows;
+            mRealText = realText;
+            mBytes = bytes;
+        }
+
+        boolean overlaps(String locationSetting, long fromDate, long toDate) {
+            return mLocationSetting.equals(locationSetting)
+                    && mFromDate <= toDate && fromDate <= mToDate;
+        }
+    }
+
+    private final LruCache<String, Entry> mEntries;
+
+    // location._id to location_setting, for writes that only know the row id
+    private final HashMap<Long, String> mLocationSettings = new HashMap<Long, String>();
+
+    private long mGeneration;
+    private int mActiveWrites;
+    private long mHits;
+    private long mMisses;
+
+    WeatherQueryCache(int maxBytes) {
+        mEntries = new LruCache<String, Entry>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                return entry.mBytes + 2 * key.length() + OBJECT_BYTES;
+            }
+        };
+    }
+
+    static boolean isSupported() {
+        // Materializing a row needs Cursor.getType
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    static String buildKey(Uri uri, String[] projection, String sortOrder) {
+        StringBuilder key = new StringBuilder(uri.toString()).append('|');
+        if (projection != null) {
+            for (String column : projection) {
+                key.append(column).append(',');
+            }
+        }
+        return key.append('|').append(sortOrder).toString();
+    }
+
+    /**
+     * @return a cursor over the stored result for the key, or null if there is none
+     */
+    synchronized Cursor get(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return new EntryCursor(entry);
+    }
+
+    /**
+     * Returns the generation to pass to {@link #put} for a query that is about to run.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Reads the whole cursor, stores it for the key unless a write happened since
+     * {@code generation} was taken, and returns a cursor over the result.  The given cursor
+     * is closed.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    Cursor put(String key, long generation, String locationSetting, long fromDate, long toDate,
+               Cursor cursor) {
+        if (!isSupported() || cursor == null) {
+            return cursor;
+        }
+
+        Entry entry;
+        try {
+            String[] columns = cursor.getColumnNames();
+            int columnCount = columns.length;
+            Object[][] rows = new Object[cursor.getCount()][];
+            String[][] realText = new String[rows.length][];
+            int bytes = OBJECT_BYTES + REFERENCE_BYTES * rows.length * 2;
+            int row = 0;
+            while (cursor.moveToNext()) {
+                Object[] values = new Object[columnCount];
+                bytes += OBJECT_BYTES + REFERENCE_BYTES * columnCount;
+                for (int i = 0; i < columnCount; i++) {
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            values[i] = cursor.getLong(i);
+                            bytes += OBJECT_BYTES + 8;
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            values[i] = cursor.getDouble(i);
+                            if (realText[row] == null) {
+                                realText[row] = new String[columnCount];
+                                bytes += OBJECT_BYTES + REFERENCE_BYTES * columnCount;
+                            }
+                            realText[row][i] = cursor.getString(i);
+                            bytes += 2 * OBJECT_BYTES + 8 + 2 * realText[row][i].length();
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            String text = cursor.getString(i);
+                            values[i] = text;
+                            bytes += OBJECT_BYTES + 2 * text.length();
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            byte[] blob = cursor.getBlob(i);
+                            values[i] = blob;
+                            bytes += OBJECT_BYTES + blob.length;
+                            break;
+                        default:
+                            break;
+                    }
+                }
+                rows[row++] = values;
+            }
+            entry = new Entry(locationSetting, fromDate, toDate, columns, rows, realText, bytes);
+        } finally {
+            cursor.close();
+        }
+
+        synchronized (this) {
+            if (mActiveWrites == 0 && generation == mGeneration) {
+                mEntries.put(key, entry);
+            }
+        }
+        return new EntryCursor(entry);
+    }
+
+    /**
+     * Called before a write.  Queries that complete while any write is in progress aren't
+     * stored.
+     *
+     * @return true if there are stored results the write may need to invalidate
+     */
+    synchronized boolean beginWrite() {
+        mActiveWrites++;
+        mGeneration++;
+        return mEntries.size() > 0;
+    }
+
+    /**
+     * Called once a write has committed (or failed) and its invalidations were reported.
+     */
+    synchronized void endWrite() {
+        mGeneration++;
+        mActiveWrites--;
+    }
+
+    /**
+     * Drops the results that include weather of the location dated fromDate to toDate.
+     */
+    synchronized void invalidate(String locationSetting, long fromDate, long toDate) {
+        ArrayList<String> stale = null;
+        for (Map.Entry<String, Entry> stored : mEntries.snapshot().entrySet()) {
+            if (stored.getValue().overlaps(locationSetting, fromDate, toDate)) {
+                if (stale == null) {
+                    stale = new ArrayList<String>();
+                }
+                stale.add(stored.getKey());
+            }
+        }
+        if (stale != null) {
+            for (String key : stale) {
+                mEntries.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Drops the results that include any weather of the location.
+     */
+    void invalidate(String locationSetting) {
+        invalidate(locationSetting, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    synchronized void clear() {
+        mEntries.evictAll();
+        mLocationSettings.clear();
+    }
+
+    synchronized String getLocationSetting(long locationId) {
+        return mLocationSettings.get(locationId);
+    }
+
+    synchronized void putLocationSetting(long locationId, String locationSetting) {
+        mLocationSettings.put(locationId, locationSetting);
+    }
+
+    synchronized void forgetLocationSettings() {
+        mLocationSettings.clear();
+    }
+
+    /** Number of queries answered from memory. */
+    synchronized long getHitCount() {
+        return mHits;
+    }
+
+    /** Number of cacheable queries that had to go to the database. */
+    synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    /** Estimated memory held by the stored results, in bytes. */
+    synchronized int getSizeBytes() {
+        return mEntries.size();
+    }
+
+    synchronized int getMaxSizeBytes() {
+        return mEntries.maxSize();
+    }
+
+    synchronized int getEntryCount() {
+        return mEntries.snapshot().size();
+    }
+
+    /**
+     * A read-only cursor over a stored result.  It shares the entry's rows, so handing one out
+     * costs no copying.
+     */
+    static final class EntryCursor extends AbstractCursor {
+        private final Entry mEntry;
+
+        EntryCursor(Entry entry) {
+            mEntry = entry;
+        }
+
+        private Object value(int column) {
+            return mEntry.mRows[getPosition()][column];
+        }
+
+        @Override
+        public int getCount() {
+            return mEntry.mRows.length;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mEntry.mColumns;
+        }
+
+        @Override
+        public String getString(int column) {
+            Object value = value(column);
+            if (value == null) {
+                return null;
+            } else if (value instanceof Double) {
+                return mEntry.mRealText[getPosition()][column];
+            } else if (value instanceof byte[]) {
+                return new String((byte[]) value);
+            }
+            return value.toString();
+        }
+
+        private double getNumber(int column) {
+            Object value = value(column);
+            if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            } else if (value instanceof String) {
+                try {
+                    return Double.parseDouble((String) value);
+                } catch (NumberFormatException e) {
+                    // SQLite reads text that isn't a number as 0
+                    return 0;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            Object value = value(column);
+            if (value instanceof Long) {
+                return (Long) value;
+            }
+            return (long) getNumber(column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getNumber(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return getNumber(column);
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            Object value = value(column);
+            if (value == null || value instanceof byte[]) {
+                return (byte[]) value;
+            }
+            return getString(column).getBytes();
+        }
+
+        @Override
+        public int getType(int column) {
+            Object value = value(column);
+            if (value == null) {
+                return FIELD_TYPE_NULL;
+            } else if (value instanceof Long) {
+                return FIELD_TYPE_INTEGER;
+            } else if (value instanceof Double) {
+                return FIELD_TYPE_FLOAT;
+            } else if (value instanceof String) {
+                return FIELD_TYPE_STRING;
+            }
+            return FIELD_TYPE_BLOB;
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return value(column) == null;
+        }
+    }
+}
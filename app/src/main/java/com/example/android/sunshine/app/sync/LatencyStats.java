@@ -0,0 +1,45 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.Locale;
+
+/**
+ * Running count, average and maximum of a set of latencies, in milliseconds.  Safe to update
+ * from several threads.
+ */
+public class LatencyStats {
+
+    private final String mName;
+    private int mCount;
+    private long mTotalMillis;
+    private long mMaxMillis;
+
+    public LatencyStats(String name) {
+        mName = name;
+    }
+
+    public synchronized void record(long millis) {
+        mCount++;
+        mTotalMillis += millis;
+        if (millis > mMaxMillis) {
+            mMaxMillis = millis;
+        }
+    }
+
+    public synchronized int getCount() {
+        return mCount;
+    }
+
+    public synchronized long getAverageMillis() {
+        return mCount == 0 ? 0 : mTotalMillis / mCount;
+    }
+
+    public synchronized long getMaxMillis() {
+        return mMaxMillis;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "%s: %d requests, avg %d ms, max %d ms",
+                mName, mCount, getAverageMillis(), mMaxMillis);
+    }
+}
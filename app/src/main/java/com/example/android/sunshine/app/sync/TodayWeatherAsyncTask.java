@@ -1,15 +1,18 @@
 package com.example.android.sunshine.app.sync;
 
-import android.graphics.BitmapFactory;
+import android.content.Context;
+import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.SunshineApp;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.Weather;
+import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.listeners.IWeatherListener;
-import com.google.android.gms.wearable.DataMap;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -20,6 +23,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.concurrent.Callable;
 
 /**
  * Created by pcarrillo on 14/09/2015.
@@ -27,22 +31,154 @@ import java.net.URL;
 public class TodayWeatherAsyncTask  extends AsyncTask<Void, Void, Weather>{
 
     public static final String LOG_TAG = TodayWeatherAsyncTask.class.getSimpleName();
-    public static final  String KEY_WEATHER_LOW_TEMP   = "low_temp";
-    public static final  String KEY_WEATHER_MAX_TEMP    = "max_temp";
-    public static final  String KEY_WEATHER_ICON      = "weather_icon";
+
+    // How long a current weather response is shared with the watches that ask after it
+    private static final long CURRENT_WEATHER_MAX_AGE_MILLIS = 60 * 1000;
+
+    private static final String[] TODAY_PROJECTION = new String[] {
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // For getWeatherFromProvider, to read today's forecast however long ago it was synced
+    static final long ANY_AGE = Long.MAX_VALUE;
+
+    // these indices must match the projection
+    private static final int INDEX_WEATHER_ID = 0;
+    private static final int INDEX_MAX_TEMP = 1;
+    private static final int INDEX_MIN_TEMP = 2;
+    private static final int INDEX_COORD_LAT = 3;
+    private static final int INDEX_COORD_LONG = 4;
+
+    // Time from a watch asking for the weather to the reply being handed to the listener
+    static final LatencyStats PROVIDER_LATENCY = new LatencyStats("provider");
+    static final LatencyStats NETWORK_LATENCY = new LatencyStats("network");
 
     private IWeatherListener weatherListener;
+    private final long mRequestedAt;
+    private boolean mFromProvider;
+
+    /**
+     * The unformatted current weather, as shared through the {@link WeatherFetchCoordinator}.
+     */
+    private static class CurrentWeather {
+        final int mWeatherId;
+        final double mCityLatitude;
+        final double mCityLongitude;
+        final double mHigh;
+        final double mLow;
+
+        CurrentWeather(int weatherId, double cityLatitude, double cityLongitude,
+                       double high, double low) {
+            mWeatherId = weatherId;
+            mCityLatitude = cityLatitude;
+            mCityLongitude = cityLongitude;
+            mHigh = high;
+            mLow = low;
+        }
+    }
 
     public TodayWeatherAsyncTask(IWeatherListener weatherListener) {
         this.weatherListener = weatherListener;
+        mRequestedAt = SystemClock.elapsedRealtime();
     }
 
     @Override
     protected Weather doInBackground(Void...Weather) {
 
-        String locationQuery = Utility.getPreferredLocation(SunshineApp.getContext());
+        Context context = SunshineApp.getContext();
+        final String locationQuery = Utility.getPreferredLocation(context);
+
+        // The sync adapter keeps today's forecast in the provider; only go to the network when
+        // that copy is too old to show.
+        long maxAgeMillis = context.getResources()
+                .getInteger(R.integer.wear_weather_max_age_minutes) * 60 * 1000L;
+        Weather stored = getWeatherFromProvider(context, locationQuery, maxAgeMillis);
+        if (stored != null) {
+            mFromProvider = true;
+            return stored;
+        }
+
+        try {
+            // Watches asking at the same time, or right after each other, share one request.
+            CurrentWeather current = WeatherFetchCoordinator.getInstance().fetch(locationQuery,
+                    WeatherFetchCoordinator.QUERY_CURRENT, CURRENT_WEATHER_MAX_AGE_MILLIS,
+                    new Callable<CurrentWeather>() {
+                        @Override
+                        public CurrentWeather call() throws IOException, JSONException {
+                            return fetchCurrentWeather(locationQuery);
+                        }
+                    });
+            if (current != null) {
+                return new Weather(current.mWeatherId, current.mCityLatitude,
+                        current.mCityLongitude, current.mHigh, current.mLow);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error ", e);
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            e.printStackTrace();
+        }
+
+        // The network failed; an old forecast for today is still better than nothing.
+        stored = getWeatherFromProvider(context, locationQuery, ANY_AGE);
+        if (stored != null) {
+            Log.d(LOG_TAG, "Couldn't fetch the weather, sending the stored forecast");
+            mFromProvider = true;
+        }
+        return stored;
+    }
+
+    /**
+     * Reads today's weather for the given location from the provider.
+     *
+     * @param maxAgeMillis how long ago the location must have been synced for its data to
+     *                     be used
+     * @return today's weather, or null if it isn't stored or is older than maxAgeMillis
+     */
+    static Weather getWeatherFromProvider(Context context, String locationSetting,
+                                          long maxAgeMillis) {
+        long lastSync = Utility.getLastSyncTime(context, locationSetting);
+        if (System.currentTimeMillis() - lastSync > maxAgeMillis) {
+            return null;
+        }
+
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor cursor = context.getContentResolver().query(weatherUri, TODAY_PROJECTION,
+                null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new Weather(cursor.getInt(INDEX_WEATHER_ID),
+                    cursor.getDouble(INDEX_COORD_LAT),
+                    cursor.getDouble(INDEX_COORD_LONG),
+                    cursor.getDouble(INDEX_MAX_TEMP),
+                    cursor.getDouble(INDEX_MIN_TEMP));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Encodes today's weather for the watch: whole degrees in the user's units.  The watch
+     * formats the temperatures and draws the icon from its copy of the WearIconAtlas.
+     */
+    static byte[] encodePayload(Context context, Weather today, long timestamp) {
+        return WeatherPayload.encode(timestamp, !Utility.isMetric(context),
+                new WeatherPayload.Day(today.getWeatherId(), today.getHigh(), today.getLow()));
+    }
 
-        // These two need to be declared outside the try/catch
+    private CurrentWeather fetchCurrentWeather(String locationQuery)
+            throws IOException, JSONException {
+        // These two need to be declared outside the try/finally
         // so that they can be closed in the finally block.
         HttpURLConnection urlConnection = null;
         BufferedReader reader = null;
@@ -98,11 +234,6 @@ public class TodayWeatherAsyncTask  extends AsyncTask<Void, Void, Weather>{
             }
             forecastJsonStr = buffer.toString();
             return getWeatherDataFromJson(forecastJsonStr);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
         } finally {
             if (urlConnection != null) {
                 urlConnection.disconnect();
@@ -115,34 +246,24 @@ public class TodayWeatherAsyncTask  extends AsyncTask<Void, Void, Weather>{
                 }
             }
         }
-        return null;
     }
 
     @Override
     protected void onPostExecute(final Weather s) {
         super.onPostExecute(s);
-        int weatherId = s.getWeatherId();
-        String artUrl = Utility.getArtUrlForWeatherCondition(SunshineApp.getContext(), weatherId);
-        DataMap config = new DataMap();
-        config.putString(KEY_WEATHER_LOW_TEMP, s.getLow());
-        config.putString(KEY_WEATHER_MAX_TEMP, s.getHigh());
-        weatherListener.sendWeatherData(config);
-        int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-        weatherListener.sendWeatherIcon(Utility.getResizedBitmap(BitmapFactory.decodeResource(SunshineApp.getContext().getResources(), artResourceId),40,40));
-//        Glide
-//            .with(SunshineApp.getContext())
-//            .load(artUrl)
-//                .asBitmap()
-//                .into(new SimpleTarget<Bitmap>(40,40) {
-//                    @Override
-//                    public void onResourceReady(Bitmap weatherBitmap, GlideAnimation glideAnimation) {
-//
-//                    }
-//                });
+        if (s == null) {
+            // Nothing stored for today and the network failed; the watch keeps what it has.
+            return;
+        }
+        byte[] payload = encodePayload(SunshineApp.getContext(), s, System.currentTimeMillis());
+        weatherListener.sendWeatherData(payload);
 
+        LatencyStats latency = mFromProvider ? PROVIDER_LATENCY : NETWORK_LATENCY;
+        latency.record(SystemClock.elapsedRealtime() - mRequestedAt);
+        Log.d(LOG_TAG, "Weather sent to the watch. " + latency);
     }
 
-    private Weather getWeatherDataFromJson(String forecastJsonStr)
+    private CurrentWeather getWeatherDataFromJson(String forecastJsonStr)
             throws JSONException {
         final String OWM_COORD = "coord";
 
@@ -195,8 +316,7 @@ public class TodayWeatherAsyncTask  extends AsyncTask<Void, Void, Weather>{
             high = temperatureObject.getDouble(OWM_MAX);
             low = temperatureObject.getDouble(OWM_MIN);
 
-            Weather weather = new Weather(weatherId, cityLatitude, cityLongitude, Utility.formatTemperature(SunshineApp.getContext(), high), Utility.formatTemperature(SunshineApp.getContext(), low));
-            return weather;
+            return new CurrentWeather(weatherId, cityLatitude, cityLongitude, high, low);
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
@@ -0,0 +1,356 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.SunshineApp;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.NodeApi;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps one connection to the Wearable API for everything the phone sends the watches.
+ *
+ * The client is connected on first use and disconnected after {@link #IDLE_DISCONNECT_MILLIS}
+ * without any, so a burst of updates shares one connection.  Work submitted while connecting
+ * runs once the client is connected and the connected nodes are known.  The node set is read
+ * once per connection and then kept current by node listeners, so a send goes straight to the
+ * nodes without asking the Node API first.
+ *
+ * Messages go through a {@link WearOutboundQueue}: a message for a node that is still busy with
+ * the previous one, or whose send failed, waits there and is replaced by newer ones for the same
+ * path, and a node's queue is flushed when it connects again.  A node that disconnects is
+ * forgotten, queue and all; the Data Layer catches it up when it comes back.  Ready messages are sent to every node
+ * at once; each send is tracked until its node acknowledges it or {@link #SEND_TIMEOUT_MILLIS}
+ * passes, and its latency or failure is recorded for that node.
+ *
+ * All state is kept on the main thread; the public methods can be called from any thread.
+ */
+public class WearConnectionManager implements GoogleApiClient.ConnectionCallbacks,
+        GoogleApiClient.OnConnectionFailedListener, NodeApi.NodeListener {
+
+    public static final String LOG_TAG = WearConnectionManager.class.getSimpleName();
+
+    static final long IDLE_DISCONNECT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    static final long SEND_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    // Data items can carry assets, which take longer than a message
+    static final long PUT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Work that needs a connected client.
+     */
+    public interface Task {
+        void run(GoogleApiClient googleApiClient);
+    }
+
+    /**
+     * Send results for one node.
+     */
+    public static class NodeStats {
+        final LatencyStats mLatency;
+        private int mFailures;
+        private int mInFlight;
+
+        NodeStats(String nodeId) {
+            mLatency = new LatencyStats(nodeId);
+        }
+
+        public LatencyStats getLatency() {
+            return mLatency;
+        }
+
+        public synchronized int getFailures() {
+            return mFailures;
+        }
+
+        public synchronized int getInFlight() {
+            return mInFlight;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return mLatency + ", " + mFailures + " failed, " + mInFlight + " in flight";
+        }
+    }
+
+    private static WearConnectionManager sInstance;
+
+    private final GoogleApiClient mGoogleApiClient;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // Only touched on mHandler's thread
+    private final ArrayList<Task> mPending = new ArrayList<Task>();
+    private final HashSet<String> mNodes = new HashSet<String>();
+    // Every node seen since the process started that hasn't disconnected since
+    private final HashSet<String> mKnownNodes = new HashSet<String>();
+    private boolean mReady;
+    private int mInFlight;
+
+    private final HashMap<String, NodeStats> mStats = new HashMap<String, NodeStats>();
+
+    private final WearOutboundQueue mQueue = new WearOutboundQueue();
+
+    private final Runnable mDisconnect = new Runnable() {
+        @Override
+        public void run() {
+            if (mInFlight > 0) {
+                // Wait for the sends and puts to be acknowledged or time out
+                mHandler.postDelayed(this, SEND_TIMEOUT_MILLIS);
+                return;
+            }
+            Log.d(LOG_TAG, "Idle, disconnecting");
+            if (mGoogleApiClient.isConnected()) {
+                Wearable.NodeApi.removeListener(mGoogleApiClient, WearConnectionManager.this);
+            }
+            mReady = false;
+            mGoogleApiClient.disconnect();
+        }
+    };
+
+    public static synchronized WearConnectionManager getInstance() {
+        if (sInstance == null) {
+            sInstance = new WearConnectionManager(SunshineApp.getContext());
+        }
+        return sInstance;
+    }
+
+    WearConnectionManager(Context context) {
+        mGoogleApiClient = new GoogleApiClient.Builder(context.getApplicationContext())
+                .addApi(Wearable.API)
+                .addConnectionCallbacks(this)
+                .addOnConnectionFailedListener(this)
+                .build();
+    }
+
+    /**
+     * Runs the task on the main thread once the client is connected.
+     */
+    public void execute(final Task task) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                scheduleDisconnect();
+                if (mReady) {
+                    task.run(mGoogleApiClient);
+                    return;
+                }
+                mPending.add(task);
+                if (!mGoogleApiClient.isConnected() && !mGoogleApiClient.isConnecting()) {
+                    mGoogleApiClient.connect();
+                }
+            }
+        });
+    }
+
+    /**
+     * Sends a message to every node, now or when it next connects.  Only the newest message for
+     * a path is delivered to a node that was offline or busy, and none to a node that already
+     * acknowledged the same fingerprint.
+     *
+     * @param fingerprint identifies the message's content, or null to always send it
+     * @param force whether to send it to nodes that already have its content
+     */
+    public void sendToAll(final String path, final byte[] payload, final Long fingerprint,
+                          final boolean force) {
+        final long now = SystemClock.elapsedRealtime();
+        execute(new Task() {
+            @Override
+            public void run(GoogleApiClient googleApiClient) {
+                for (String nodeId : mKnownNodes) {
+                    if (!mQueue.offer(nodeId, path, payload, fingerprint, force, now)) {
+                        Log.d(LOG_TAG, nodeId + " already has this " + path + "; queue " + mQueue);
+                    }
+                }
+                for (String nodeId : mNodes) {
+                    flush(nodeId);
+                }
+            }
+        });
+    }
+
+    /**
+     * Puts a data item once the client is connected.  The connection is held until the put
+     * finishes or {@link #PUT_TIMEOUT_MILLIS} passes, and then the callback gets its result on
+     * the main thread.
+     */
+    public void putDataItem(final PutDataRequest request,
+                            final ResultCallback<DataApi.DataItemResult> callback) {
+        execute(new Task() {
+            @Override
+            public void run(GoogleApiClient googleApiClient) {
+                mInFlight++;
+                Wearable.DataApi.putDataItem(googleApiClient, request).setResultCallback(
+                        new ResultCallback<DataApi.DataItemResult>() {
+                            @Override
+                            public void onResult(DataApi.DataItemResult result) {
+                                mInFlight--;
+                                callback.onResult(result);
+                            }
+                        }, PUT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    public WearOutboundQueue getQueue() {
+        return mQueue;
+    }
+
+    // Sends whatever the node has waiting; main thread, connected
+    private void flush(String nodeId) {
+        for (WearOutboundQueue.Entry entry : mQueue.takeReady(nodeId)) {
+            send(entry);
+        }
+    }
+
+    /**
+     * @return the send results for the node, or null if nothing was sent to it
+     */
+    public NodeStats getStats(String nodeId) {
+        synchronized (mStats) {
+            return mStats.get(nodeId);
+        }
+    }
+
+    private NodeStats getOrCreateStats(String nodeId) {
+        synchronized (mStats) {
+            NodeStats stats = mStats.get(nodeId);
+            if (stats == null) {
+                stats = new NodeStats(nodeId);
+                mStats.put(nodeId, stats);
+            }
+            return stats;
+        }
+    }
+
+    private void send(final WearOutboundQueue.Entry entry) {
+        final String nodeId = entry.mNodeId;
+        final NodeStats stats = getOrCreateStats(nodeId);
+        final long start = SystemClock.elapsedRealtime();
+        synchronized (stats) {
+            stats.mInFlight++;
+        }
+        mInFlight++;
+        Wearable.MessageApi.sendMessage(mGoogleApiClient, nodeId, entry.mPath, entry.mPayload)
+                .setResultCallback(new ResultCallback<MessageApi.SendMessageResult>() {
+                    @Override
+                    public void onResult(MessageApi.SendMessageResult result) {
+                        mInFlight--;
+                        boolean delivered = result.getStatus().isSuccess();
+                        long now = SystemClock.elapsedRealtime();
+                        synchronized (stats) {
+                            stats.mInFlight--;
+                            if (!delivered) {
+                                stats.mFailures++;
+                            }
+                        }
+                        mQueue.onSent(entry, delivered, now);
+                        if (delivered) {
+                            stats.mLatency.record(now - start);
+                            // Something newer may have been queued while this was sent
+                            if (mReady && mNodes.contains(nodeId)) {
+                                flush(nodeId);
+                            }
+                        } else {
+                            // Kept in the queue until the node connects again
+                            Log.w(LOG_TAG, "Send to " + nodeId + " failed: " +
+                                    result.getStatus());
+                        }
+                        Log.d(LOG_TAG, nodeId + ": " + stats + "; queue " + mQueue);
+                    }
+                }, SEND_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void scheduleDisconnect() {
+        mHandler.removeCallbacks(mDisconnect);
+        mHandler.postDelayed(mDisconnect, IDLE_DISCONNECT_MILLIS);
+    }
+
+    @Override
+    public void onConnected(Bundle bundle) {
+        Wearable.NodeApi.addListener(mGoogleApiClient, this);
+        Wearable.NodeApi.getConnectedNodes(mGoogleApiClient).setResultCallback(
+                new ResultCallback<NodeApi.GetConnectedNodesResult>() {
+                    @Override
+                    public void onResult(NodeApi.GetConnectedNodesResult result) {
+                        mNodes.clear();
+                        for (Node node : result.getNodes()) {
+                            mNodes.add(node.getId());
+                        }
+                        mKnownNodes.addAll(mNodes);
+                        mReady = true;
+                        ArrayList<Task> pending = new ArrayList<Task>(mPending);
+                        mPending.clear();
+                        for (Task task : pending) {
+                            task.run(mGoogleApiClient);
+                        }
+                        // Deliver what waited for nodes that came back while disconnected
+                        for (String nodeId : mNodes) {
+                            flush(nodeId);
+                        }
+                    }
+                });
+    }
+
+    @Override
+    public void onConnectionSuspended(int cause) {
+        // The client reconnects by itself; the node set is read again when it does
+        mReady = false;
+    }
+
+    @Override
+    public void onConnectionFailed(ConnectionResult connectionResult) {
+        Log.w(LOG_TAG, "Wearable API unavailable, dropping " + mPending.size() + " tasks: " +
+                connectionResult);
+        mPending.clear();
+    }
+
+    /**
+     * Adds the node and flushes its queue.
+     */
+    @Override
+    public void onPeerConnected(final Node node) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mNodes.add(node.getId());
+                mKnownNodes.add(node.getId());
+            }
+        });
+        execute(new Task() {
+            @Override
+            public void run(GoogleApiClient googleApiClient) {
+                flush(node.getId());
+            }
+        });
+    }
+
+    /**
+     * Removes the node and forgets what was queued for it.
+     */
+    @Override
+    public void onPeerDisconnected(final Node node) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mNodes.remove(node.getId());
+                mKnownNodes.remove(node.getId());
+                mQueue.clear(node.getId());
+            }
+        });
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataItemBuffer;
+import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The weather icons the watch face draws, packed side by side into one image.
+ *
+ * The atlas is put in the Data Layer once per {@link #VERSION}; the Data Layer copies it to every
+ * watch, including ones paired later, and keeps it there.  A watch that still lacks it keeps
+ * asking for the weather, and then the phone checks the Data Layer and puts it again if it isn't
+ * there.  Weather updates then only carry the
+ * condition id and the watch picks the icon out of its copy.
+ */
+public class WearIconAtlas {
+
+    public static final String LOG_TAG = WearIconAtlas.class.getSimpleName();
+
+    public static final String PATH_ICON_ATLAS = "/WeatherWatchFace/IconAtlas";
+    public static final String KEY_ATLAS_VERSION = "atlas_version";
+    public static final String KEY_ICON_SIZE = "icon_size";
+    public static final String KEY_ATLAS = "atlas";
+
+    /**
+     * Bump when an icon, the size or the order changes.  Must match
+     * SunshineWearUtils.ICON_ATLAS_VERSION on the watch.
+     */
+    public static final int VERSION = 1;
+
+    public static final int ICON_SIZE = 40;
+
+    // In the order of SunshineWearUtils.ICON_* on the watch
+    private static final int[] ICONS = new int[] {
+            R.drawable.art_clear,
+            R.drawable.art_light_clouds,
+            R.drawable.art_clouds,
+            R.drawable.art_fog,
+            R.drawable.art_light_rain,
+            R.drawable.art_rain,
+            R.drawable.art_snow,
+            R.drawable.art_storm
+    };
+
+    private static final String PREF_SYNCED_VERSION = "wear_icon_atlas_version";
+
+    private static final AtomicBoolean sSyncing = new AtomicBoolean();
+
+    private WearIconAtlas() {
+    }
+
+    /**
+     * Puts the atlas in the Data Layer unless this version already is.  Returns right away; the
+     * atlas is built on a background thread and put through {@link WearConnectionManager}.
+     *
+     * @param check whether to look for the item in the Data Layer rather than trust that it was
+     *              put before, for when a watch asked for the weather because it lacks the atlas
+     */
+    public static void ensureSynced(final Context context, GoogleApiClient googleApiClient,
+                                    boolean check) {
+        if (!check) {
+            SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+            if (sp.getInt(PREF_SYNCED_VERSION, 0) != VERSION) {
+                put(context);
+            }
+            return;
+        }
+        Uri uri = new Uri.Builder().scheme(PutDataRequest.WEAR_URI_SCHEME)
+                .path(PATH_ICON_ATLAS).build();
+        Wearable.DataApi.getDataItems(googleApiClient, uri).setResultCallback(
+                new ResultCallback<DataItemBuffer>() {
+                    @Override
+                    public void onResult(DataItemBuffer dataItems) {
+                        boolean current = false;
+                        if (dataItems.getStatus().isSuccess()) {
+                            for (DataItem item : dataItems) {
+                                if (DataMapItem.fromDataItem(item).getDataMap()
+                                        .getInt(KEY_ATLAS_VERSION) == VERSION) {
+                                    current = true;
+                                }
+                            }
+                        }
+                        dataItems.release();
+                        if (!current) {
+                            put(context);
+                        }
+                    }
+                });
+    }
+
+    private static void put(Context context) {
+        if (!sSyncing.compareAndSet(false, true)) {
+            return;
+        }
+        final SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        final Resources resources = context.getApplicationContext().getResources();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                PutDataMapRequest dataMap = PutDataMapRequest.create(PATH_ICON_ATLAS);
+                dataMap.getDataMap().putInt(KEY_ATLAS_VERSION, VERSION);
+                dataMap.getDataMap().putInt(KEY_ICON_SIZE, ICON_SIZE);
+                try {
+                    dataMap.getDataMap().putAsset(KEY_ATLAS,
+                            Utility.createAssetFromBitmap(build(resources)));
+                } catch (RuntimeException e) {
+                    sSyncing.set(false);
+                    throw e;
+                }
+                WearConnectionManager.getInstance().putDataItem(dataMap.asPutDataRequest(),
+                        new ResultCallback<DataApi.DataItemResult>() {
+                            @Override
+                            public void onResult(DataApi.DataItemResult result) {
+                                if (result.getStatus().isSuccess()) {
+                                    sp.edit().putInt(PREF_SYNCED_VERSION, VERSION).apply();
+                                } else {
+                                    Log.w(LOG_TAG, "Icon atlas not synced: " + result.getStatus());
+                                }
+                                sSyncing.set(false);
+                            }
+                        });
+            }
+        });
+    }
+
+    /**
+     * Draws the icons, scaled to {@link #ICON_SIZE}, left to right in one image.
+     */
+    static Bitmap build(Resources resources) {
+        Bitmap atlas = Bitmap.createBitmap(ICON_SIZE * ICONS.length, ICON_SIZE,
+                Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(atlas);
+        Rect target = new Rect();
+        for (int i = 0; i < ICONS.length; i++) {
+            Bitmap icon = BitmapFactory.decodeResource(resources, ICONS[i]);
+            target.set(i * ICON_SIZE, 0, (i + 1) * ICON_SIZE, ICON_SIZE);
+            canvas.drawBitmap(icon, null, target, null);
+            icon.recycle();
+        }
+        return atlas;
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Messages waiting to go to a watch, at most one per node and path.
+ *
+ * A watch only needs the newest weather, so a message offered while an older one for the same
+ * node and path is still waiting replaces it (and is counted as coalesced).  An entry is taken
+ * out while it is being sent; if a newer one is offered meanwhile, it waits for the send to
+ * finish, and if the send fails the entry goes back unless something newer took its place.
+ *
+ * The queue also remembers the fingerprint of the last message each node acknowledged on each
+ * path.  A message with the same fingerprint isn't sent again, since the node already shows
+ * it, unless the caller forces it.  Safe to use from several threads.
+ */
+public class WearOutboundQueue {
+
+    /**
+     * One message for one node.
+     */
+    public static final class Entry {
+        final String mNodeId;
+        final String mPath;
+        final byte[] mPayload;
+        // Null if the payload has no fingerprint
+        final Long mFingerprint;
+        final long mEnqueuedAt;
+
+        Entry(String nodeId, String path, byte[] payload, Long fingerprint, long enqueuedAt) {
+            mNodeId = nodeId;
+            mPath = path;
+            mPayload = payload;
+            mFingerprint = fingerprint;
+            mEnqueuedAt = enqueuedAt;
+        }
+
+        String getKey() {
+            return key(mNodeId, mPath);
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> mQueued = new LinkedHashMap<String, Entry>();
+    private final HashSet<String> mSending = new HashSet<String>();
+    // Fingerprint of the last entry each node acknowledged, by key
+    private final HashMap<String, Long> mDelivered = new HashMap<String, Long>();
+    private int mCoalesced;
+    private int mSuppressed;
+
+    // From an entry being offered to its node acknowledging it
+    private final LatencyStats mDeliveryLatency = new LatencyStats("delivery");
+
+    private static String key(String nodeId, String path) {
+        return nodeId + '|' + path;
+    }
+
+    /**
+     * Queues a message without a fingerprint, which is always sent.
+     */
+    public void offer(String nodeId, String path, byte[] payload, long now) {
+        offer(nodeId, path, payload, null, true, now);
+    }
+
+    /**
+     * Queues a message for a node, replacing any older one for the same path still waiting.
+     *
+     * @param fingerprint identifies the message's content, or null if it has none
+     * @param force whether to send the message even if the node already acknowledged the same
+     *              content
+     * @return false if the message was suppressed because the node already has its content
+     */
+    public synchronized boolean offer(String nodeId, String path, byte[] payload,
+                                      Long fingerprint, boolean force, long now) {
+        String key = key(nodeId, path);
+        if (!force && fingerprint != null && !mSending.contains(key)
+                && fingerprint.equals(mDelivered.get(key))) {
+            // Anything older still waiting would only take the node away from what it shows
+            if (mQueued.remove(key) != null) {
+                mCoalesced++;
+            }
+            mSuppressed++;
+            return false;
+        }
+        Entry replaced = mQueued.put(key, new Entry(nodeId, path, payload, fingerprint, now));
+        if (replaced != null) {
+            mCoalesced++;
+        }
+        return true;
+    }
+
+    /**
+     * Takes the node's waiting entries that aren't already being sent.  Each must be handed
+     * back to {@link #onSent}.
+     */
+    public synchronized ArrayList<Entry> takeReady(String nodeId) {
+        ArrayList<Entry> ready = new ArrayList<Entry>();
+        Iterator<Entry> iterator = mQueued.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.mNodeId.equals(nodeId) && mSending.add(entry.getKey())) {
+                iterator.remove();
+                ready.add(entry);
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * Records the end of a send.  A failed entry is queued again unless a newer one is waiting.
+     */
+    public synchronized void onSent(Entry entry, boolean delivered, long now) {
+        String key = entry.getKey();
+        // False if the node was cleared while this was sent
+        boolean sending = mSending.remove(key);
+        if (delivered) {
+            mDeliveryLatency.record(now - entry.mEnqueuedAt);
+            if (entry.mFingerprint != null) {
+                mDelivered.put(key, entry.mFingerprint);
+            } else {
+                mDelivered.remove(key);
+            }
+        } else if (sending && !mQueued.containsKey(key)) {
+            mQueued.put(key, entry);
+        }
+    }
+
+    /**
+     * Forgets everything queued for, being sent to and delivered to a node that disconnected.
+     * A send still on its way isn't queued again if it fails.
+     */
+    public synchronized void clear(String nodeId) {
+        Iterator<Entry> iterator = mQueued.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().mNodeId.equals(nodeId)) {
+                iterator.remove();
+            }
+        }
+        String prefix = key(nodeId, "");
+        Iterator<String> sending = mSending.iterator();
+        while (sending.hasNext()) {
+            if (sending.next().startsWith(prefix)) {
+                sending.remove();
+            }
+        }
+        Iterator<String> delivered = mDelivered.keySet().iterator();
+        while (delivered.hasNext()) {
+            if (delivered.next().startsWith(prefix)) {
+                delivered.remove();
+            }
+        }
+    }
+
+    /**
+     * @return how many entries are waiting, not counting those being sent
+     */
+    public synchronized int getDepth() {
+        return mQueued.size();
+    }
+
+    /**
+     * @return how many entries were replaced by a newer one before they were sent
+     */
+    public synchronized int getCoalescedCount() {
+        return mCoalesced;
+    }
+
+    /**
+     * @return how many messages weren't sent because the node already had their content
+     */
+    public synchronized int getSuppressedCount() {
+        return mSuppressed;
+    }
+
+    public LatencyStats getDeliveryLatency() {
+        return mDeliveryLatency;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "depth " + mQueued.size() + ", " + mSending.size() + " sending, " + mCoalesced +
+                " coalesced, " + mSuppressed + " suppressed, " + mDeliveryLatency;
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.Weather;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+/**
+ * Today's weather, kept in the Data Layer for the watch face to read whenever it connects.
+ *
+ * The Data Layer keeps one item per path and delivers only its latest value, so updates made
+ * while the watch is away coalesce into one.  The item holds a {@link WeatherPayload}, which is
+ * versioned.  It is only rewritten when the weather or the units change: a new timestamp alone
+ * isn't worth waking the watch for.  The {@link WeatherPayload#fingerprint} of the last item put
+ * is kept in the preferences, so this holds across restarts of the app.
+ *
+ * The watch only asks the phone for the weather while this item is missing, so publishing also
+ * makes sure the {@link WearIconAtlas} is in the Data Layer.
+ */
+public class WearWeatherState {
+
+    public static final String LOG_TAG = WearWeatherState.class.getSimpleName();
+
+    public static final String PATH_WEATHER_STATE = "/WeatherWatchFace/WeatherState";
+    public static final String KEY_PAYLOAD = "payload";
+
+    static final String PREF_PUBLISHED_FINGERPRINT = "wear_published_fingerprint";
+
+    private WearWeatherState() {
+    }
+
+    /**
+     * Publishes the payload unless the watch already has the same weather, and the icon atlas
+     * unless it was already.  Returns right away.
+     *
+     * @param requested whether a watch asked for the weather, in which case the atlas is looked
+     *                  for in the Data Layer
+     */
+    public static void publish(Context context, GoogleApiClient googleApiClient,
+                               final byte[] payload, boolean requested) {
+        WearIconAtlas.ensureSynced(context, googleApiClient, requested);
+        final SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        if (!hasChanged(sp, payload)) {
+            return;
+        }
+        Wearable.DataApi.putDataItem(googleApiClient, createRequest(payload))
+                .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
+                    @Override
+                    public void onResult(DataApi.DataItemResult result) {
+                        onPublished(sp, payload, result);
+                    }
+                });
+    }
+
+    /**
+     * Publishes today's weather from the provider, for the sync adapter to call once a forecast
+     * is stored.  Goes through {@link WearConnectionManager} like any other update, so it shares
+     * the manager's connection, and only rewrites the item when the weather changed; the Data
+     * Layer delivers it to watches that are away once they come back.  Returns right away.
+     */
+    static void publishFromProvider(Context context, String locationSetting) {
+        long maxAgeMillis = context.getResources()
+                .getInteger(R.integer.wear_weather_max_age_minutes) * 60 * 1000L;
+        Weather today = TodayWeatherAsyncTask.getWeatherFromProvider(context, locationSetting,
+                maxAgeMillis);
+        if (today == null) {
+            return;
+        }
+        WeatherWearableListener.sendToWatches(TodayWeatherAsyncTask.encodePayload(context, today,
+                System.currentTimeMillis()), false);
+    }
+
+    private static PutDataRequest createRequest(byte[] payload) {
+        PutDataMapRequest dataMap = PutDataMapRequest.create(PATH_WEATHER_STATE);
+        dataMap.getDataMap().putByteArray(KEY_PAYLOAD, payload);
+        return dataMap.asPutDataRequest();
+    }
+
+    private static void onPublished(SharedPreferences sp, byte[] payload,
+                                    DataApi.DataItemResult result) {
+        if (result.getStatus().isSuccess()) {
+            setPublished(sp, payload);
+        } else {
+            Log.w(LOG_TAG, "Weather not published: " + result.getStatus());
+        }
+    }
+
+    static void setPublished(SharedPreferences sp, byte[] payload) {
+        sp.edit().putLong(PREF_PUBLISHED_FINGERPRINT, WeatherPayload.fingerprint(payload)).apply();
+    }
+
+    /**
+     * @return whether the payload differs from the last one published in anything but the
+     * timestamp
+     */
+    static boolean hasChanged(SharedPreferences sp, byte[] payload) {
+        return !sp.contains(PREF_PUBLISHED_FINGERPRINT)
+                || sp.getLong(PREF_PUBLISHED_FINGERPRINT, 0) != WeatherPayload.fingerprint(payload);
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Makes sure only one request per location and query type is on its way to OpenWeatherMap at
+ * any time.
+ *
+ * The first caller for a key runs the fetch on its own thread; callers that arrive while it is
+ * running wait for it and get the same result (or the same exception).  A caller may also
+ * accept a result that completed less than {@code maxAgeMillis} ago, which lets several
+ * watches asking right after each other share one request.  Failed fetches and null results
+ * are never reused.
+ */
+public class WeatherFetchCoordinator {
+
+    public static final String LOG_TAG = WeatherFetchCoordinator.class.getSimpleName();
+
+    // Query types, matching the OpenWeatherMap endpoints they call
+    public static final String QUERY_FORECAST = "forecast/daily";
+    public static final String QUERY_CURRENT = "weather";
+
+    private static final WeatherFetchCoordinator sInstance = new WeatherFetchCoordinator();
+
+    private final HashMap<String, FutureTask<?>> mInFlight = new HashMap<String, FutureTask<?>>();
+    private final HashMap<String, CompletedFetch> mCompleted = new HashMap<String, CompletedFetch>();
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mCoalesced = new AtomicLong();
+
+    private static class CompletedFetch {
+        final Object mResult;
+        final long mCompletedAt;
+
+        CompletedFetch(Object result, long completedAt) {
+            mResult = result;
+            mCompletedAt = completedAt;
+        }
+    }
+
+    public static WeatherFetchCoordinator getInstance() {
+        return sInstance;
+    }
+
+    WeatherFetchCoordinator() {
+    }
+
+    /**
+     * Runs {@code fetcher} unless the same fetch is already running or finished recently
+     * enough, and returns its result.  Blocks until the result is available.
+     *
+     * @param locationSetting the location the fetch is for
+     * @param queryType one of {@link #QUERY_FORECAST} or {@link #QUERY_CURRENT}
+     * @param maxAgeMillis how old a completed result may be and still be returned, or 0 to
+     *                     only share a fetch that is still running
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V fetch(String locationSetting, String queryType, long maxAgeMillis,
+                       Callable<V> fetcher) throws IOException, JSONException {
+        String key = queryType + '|' + locationSetting;
+        FutureTask<V> task;
+        boolean owner = false;
+
+        synchronized (this) {
+            CompletedFetch completed = mCompleted.get(key);
+            if (completed != null && maxAgeMillis > 0
+                    && SystemClock.elapsedRealtime() - completed.mCompletedAt < maxAgeMillis) {
+                mHits.incrementAndGet();
+                return (V) completed.mResult;
+            }
+
+            task = (FutureTask<V>) mInFlight.get(key);
+            if (task != null) {
+                mCoalesced.incrementAndGet();
+            } else {
+                task = new FutureTask<V>(fetcher);
+                mInFlight.put(key, task);
+                mMisses.incrementAndGet();
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            task.run();
+            synchronized (this) {
+                mInFlight.remove(key);
+                mCompleted.remove(key);
+                try {
+                    V result = task.get();
+                    if (result != null) {
+                        mCompleted.put(key, new CompletedFetch(result, SystemClock.elapsedRealtime()));
+                    }
+                } catch (ExecutionException | InterruptedException e) {
+                    // Failures are left for the next caller to retry
+                }
+            }
+        } else {
+            Log.d(LOG_TAG, "Waiting for the " + queryType + " fetch already running for " +
+                    locationSetting);
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + key);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof JSONException) {
+                throw (JSONException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Fetch of " + key + " failed: " + cause);
+        }
+    }
+
+    /**
+     * Forgets every completed result, so the next call for any key goes to the network.
+     */
+    public synchronized void invalidate() {
+        mCompleted.clear();
+    }
+
+    /** Number of calls answered with a recently completed result. */
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    /** Number of calls that had to start a fetch of their own. */
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    /** Number of calls that waited for a fetch another caller had already started. */
+    public long getCoalescedCount() {
+        return mCoalesced.get();
+    }
+}
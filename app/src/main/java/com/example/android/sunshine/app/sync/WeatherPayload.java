@@ -0,0 +1,126 @@
+package com.example.android.sunshine.app.sync;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * The weather update the phone sends the watch, as raw numbers in a few bytes.
+ *
+ * Big-endian, version 2:
+ * <pre>
+ *   byte   version
+ *   byte   flags               FLAG_IMPERIAL if the user wants Fahrenheit
+ *   long   timestamp           when the phone produced the update, in milliseconds
+ *   short  weatherId           OpenWeatherMap condition id
+ *   short  high, low           whole degrees in the user's units, or MINUS_ZERO for "-0"
+ *   byte   dayCount
+ *   dayCount times:
+ *     short weatherId, high, low
+ * </pre>
+ * Temperatures are rounded here exactly as Utility.formatTemperature rounds them, so the watch
+ * only adds the degree sign and shows what the phone shows.  They are formatted on the watch,
+ * so the payload doesn't depend on the phone's locale.
+ * The watch face has a decoder for the same layout in its own WeatherPayload; change both, and
+ * {@link #VERSION}, together.
+ */
+public final class WeatherPayload {
+
+    public static final int VERSION = 2;
+
+    public static final int FLAG_IMPERIAL = 1;
+
+    // A temperature just below zero, which the phone shows as "-0"
+    public static final short MINUS_ZERO = Short.MIN_VALUE;
+
+    static final int TIMESTAMP_OFFSET = 2;
+    static final int TIMESTAMP_SIZE = 8;
+    static final int HEADER_SIZE = 17;
+    static final int DAY_SIZE = 6;
+    static final int MAX_DAYS = 255;
+
+    // 64-bit FNV-1a
+    private static final long FINGERPRINT_OFFSET = 0xcbf29ce484222325L;
+    private static final long FINGERPRINT_PRIME = 0x100000001b3L;
+
+    private WeatherPayload() {
+    }
+
+    /**
+     * One day of the forecast: a condition id and temperatures in Celsius.
+     */
+    public static final class Day {
+        final int mWeatherId;
+        final double mHigh;
+        final double mLow;
+
+        public Day(int weatherId, double high, double low) {
+            mWeatherId = weatherId;
+            mHigh = high;
+            mLow = low;
+        }
+    }
+
+    /**
+     * Encodes today's weather, followed by up to {@link #MAX_DAYS} more days.
+     */
+    public static byte[] encode(long timestamp, boolean imperial, Day today, Day... days) {
+        int dayCount = Math.min(days.length, MAX_DAYS);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + dayCount * DAY_SIZE);
+        buffer.put((byte) VERSION);
+        buffer.put((byte) (imperial ? FLAG_IMPERIAL : 0));
+        buffer.putLong(timestamp);
+        putDay(buffer, today, imperial);
+        buffer.put((byte) dayCount);
+        for (int i = 0; i < dayCount; i++) {
+            putDay(buffer, days[i], imperial);
+        }
+        return buffer.array();
+    }
+
+    private static void putDay(ByteBuffer buffer, Day day, boolean imperial) {
+        buffer.putShort((short) day.mWeatherId);
+        buffer.putShort(toDegrees(day.mHigh, imperial));
+        buffer.putShort(toDegrees(day.mLow, imperial));
+    }
+
+    /**
+     * Rounds a temperature the way Utility.formatTemperature does: converted with the same
+     * arithmetic, then rounded by the same "%1.0f" conversion, so a value like 20.46 is sent as
+     * 20 and not rounded once to tenths and again on the watch.
+     */
+    static short toDegrees(double celsius, boolean imperial) {
+        double temperature = imperial ? (celsius * 1.8) + 32 : celsius;
+        if (Double.isNaN(temperature)) {
+            return 0;
+        }
+        if (temperature >= Short.MAX_VALUE) {
+            return Short.MAX_VALUE;
+        }
+        if (temperature <= Short.MIN_VALUE + 1) {
+            return (short) (Short.MIN_VALUE + 1);
+        }
+        String rounded = String.format(Locale.US, "%1.0f", temperature);
+        int degrees = Integer.parseInt(rounded);
+        if (degrees == 0 && rounded.charAt(0) == '-') {
+            return MINUS_ZERO;
+        }
+        return (short) degrees;
+    }
+
+    /**
+     * @return a hash of everything in the payload but its timestamp, the same for two updates
+     * with the same weather and units
+     */
+    public static long fingerprint(byte[] payload) {
+        long hash = FINGERPRINT_OFFSET;
+        for (int i = 0; i < payload.length; i++) {
+            if (i == TIMESTAMP_OFFSET) {
+                i += TIMESTAMP_SIZE - 1;
+                continue;
+            }
+            hash ^= payload[i] & 0xff;
+            hash *= FINGERPRINT_PRIME;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+/*
+    Checks when the watch asks the phone for the weather after reading the Data Layer.
+ */
+public class TestSunshineWearUtils extends AndroidTestCase {
+
+    public void testNothingStoredAsks() {
+        assertTrue(SunshineWearUtils.shouldRequestWeather(false, false));
+    }
+
+    public void testStateWithoutAtlasAsks() {
+        // The phone published the weather before it synced the atlas; without asking, the
+        // watch would never get icons
+        assertTrue("Error: a watch without the icon atlas should ask the phone",
+                SunshineWearUtils.shouldRequestWeather(true, false));
+    }
+
+    public void testAtlasWithoutStateAsks() {
+        assertTrue(SunshineWearUtils.shouldRequestWeather(false, true));
+    }
+
+    public void testEverythingStoredDoesntAsk() {
+        assertFalse(SunshineWearUtils.shouldRequestWeather(true, true));
+    }
+}
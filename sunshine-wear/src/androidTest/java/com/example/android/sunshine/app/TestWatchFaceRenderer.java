@@ -0,0 +1,149 @@
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.TimeZone;
+
+/*
+    Checks that drawing a frame of the watch face allocates nothing once its text is built, that
+    the date follows the day and that the cached layer draws the same face as redrawing it, and
+    compares the cost of a frame that redraws the layer and one drawn from it.
+ */
+public class TestWatchFaceRenderer extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWatchFaceRenderer.class.getSimpleName();
+
+    private static final int SIZE = 320;
+    private static final long SECOND_IN_MILLIS = 1000;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * SECOND_IN_MILLIS;
+
+    private WatchFaceRenderer mRenderer;
+    private Canvas mCanvas;
+    private Rect mBounds;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRenderer = new WatchFaceRenderer(mContext);
+        mRenderer.setTimeZone(TimeZone.getTimeZone("UTC"));
+        mRenderer.setTextSizes(30, 20);
+        mRenderer.setTemperatures("25\u00B0", "16\u00B0");
+        mRenderer.setWeatherImage(Bitmap.createBitmap(40, 40, Bitmap.Config.ARGB_8888));
+        mCanvas = new Canvas(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+        mBounds = new Rect(0, 0, SIZE, SIZE);
+    }
+
+    // Counts the objects allocated on this thread while drawing a frame every interval
+    @SuppressWarnings("deprecation")
+    private int countAllocations(long start, int frames, long interval) {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        try {
+            for (int i = 0; i < frames; i++) {
+                mRenderer.draw(mCanvas, mBounds, start + i * interval);
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        return Debug.getThreadAllocCount();
+    }
+
+    // Midday UTC today, so the frames below never cross midnight
+    private static long midday() {
+        return System.currentTimeMillis() / DAY_IN_MILLIS * DAY_IN_MILLIS + DAY_IN_MILLIS / 2;
+    }
+
+    public void testInteractiveFramesDontAllocate() {
+        // Ten minutes of frames: the minutes and seconds change but not the date
+        long start = midday();
+        mRenderer.draw(mCanvas, mBounds, start - SECOND_IN_MILLIS);
+
+        assertEquals("Error: drawing a frame should not allocate",
+                0, countAllocations(start, 600, SECOND_IN_MILLIS));
+    }
+
+    public void testAmbientFramesDontAllocate() {
+        // Two hours of frames, one a minute
+        long start = midday();
+        mRenderer.setAmbient(true);
+        mRenderer.draw(mCanvas, mBounds, start - SECOND_IN_MILLIS);
+
+        assertEquals("Error: drawing an ambient frame should not allocate",
+                0, countAllocations(start, 120, 60 * SECOND_IN_MILLIS));
+    }
+
+    public void testDateFollowsDay() {
+        long midday = 1442232000000L;   // September 14th, 2015 12:00 UTC
+        mRenderer.draw(mCanvas, mBounds, midday);
+        String today = mRenderer.getDateText();
+        mRenderer.draw(mCanvas, mBounds, midday + 11 * 60 * 60 * SECOND_IN_MILLIS);
+        assertEquals(today, mRenderer.getDateText());
+
+        mRenderer.draw(mCanvas, mBounds, midday + DAY_IN_MILLIS);
+        assertFalse("Error: the date should change at midnight",
+                today.equals(mRenderer.getDateText()));
+    }
+
+    private Bitmap drawFrame(boolean useLayer, long nowMillis) {
+        Bitmap frame = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        if (useLayer) {
+            mRenderer.draw(new Canvas(frame), mBounds, nowMillis);
+        } else {
+            mRenderer.drawRedrawingLayer(new Canvas(frame), mBounds, nowMillis);
+        }
+        return frame;
+    }
+
+    public void testLayerDrawsSameFace() {
+        long now = midday();
+        // Twice, so the second frame is drawn from the layer built by the first
+        drawFrame(true, now - SECOND_IN_MILLIS);
+        assertTrue("Error: the layered frame should match the full one",
+                drawFrame(false, now).sameAs(drawFrame(true, now)));
+
+        mRenderer.setTemperatures("3\u00B0", "-2\u00B0");
+        assertTrue("Error: the layer should be rebuilt when the weather changes",
+                drawFrame(false, now).sameAs(drawFrame(true, now)));
+
+        mRenderer.setAmbient(true);
+        assertTrue("Error: the layer should be rebuilt when entering ambient mode",
+                drawFrame(false, now).sameAs(drawFrame(true, now)));
+    }
+
+    // Average nanoseconds to draw a frame a second for the given number of frames
+    private double timeFrames(long start, int frames, boolean useLayer) {
+        long begin = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            if (useLayer) {
+                mRenderer.draw(mCanvas, mBounds, start + i * SECOND_IN_MILLIS);
+            } else {
+                mRenderer.drawRedrawingLayer(mCanvas, mBounds, start + i * SECOND_IN_MILLIS);
+            }
+        }
+        return (double) (System.nanoTime() - begin) / frames;
+    }
+
+    /*
+        Times interactive frames that redraw the whole face, as before the layer, and frames
+        drawn from the layer.
+     */
+    public void testFrameCost() {
+        final int frames = 2000;
+        long start = midday();
+        double fullNanos = 0;
+        double layeredNanos = 0;
+        for (int warmup = 0; warmup < 2; warmup++) {
+            fullNanos = timeFrames(start, frames, false);
+            layeredNanos = timeFrames(start, frames, true);
+        }
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "Frame cost: full redraw %.1f us, layered %.1f us (%.1fx)",
+                fullNanos / 1000, layeredNanos / 1000, fullNanos / layeredNanos));
+    }
+}
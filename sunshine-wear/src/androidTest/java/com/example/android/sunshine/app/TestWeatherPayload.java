@@ -0,0 +1,136 @@
+package com.example.android.sunshine.app;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.google.android.gms.wearable.DataMap;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/*
+    Checks that the watch decodes the phone's weather payload without allocating, and compares
+    the time to decode it with the DataMap it replaced.
+ */
+public class TestWeatherPayload extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherPayload.class.getSimpleName();
+
+    private static final long TIMESTAMP = 1442232000000L;
+
+    // What the phone's WeatherPayload.encode produces
+    private static byte[] encode(int version, int flags, int weatherId, int high, int low,
+                                 int... days) {
+        ByteBuffer buffer = ByteBuffer.allocate(WeatherPayload.HEADER_SIZE + days.length * 2);
+        buffer.put((byte) version);
+        buffer.put((byte) flags);
+        buffer.putLong(TIMESTAMP);
+        buffer.putShort((short) weatherId);
+        buffer.putShort((short) high);
+        buffer.putShort((short) low);
+        buffer.put((byte) (days.length / 3));
+        for (int value : days) {
+            buffer.putShort((short) value);
+        }
+        return buffer.array();
+    }
+
+    public void testDecode() {
+        WeatherPayload payload = new WeatherPayload();
+        assertTrue(payload.decode(encode(WeatherPayload.VERSION, WeatherPayload.FLAG_IMPERIAL,
+                321, 74, WeatherPayload.MINUS_ZERO, 800, 86, 68, 500, -13, -20)));
+        assertEquals(TIMESTAMP, payload.mTimestamp);
+        assertTrue(payload.isImperial());
+        assertEquals(321, payload.mWeatherId);
+        assertEquals(74, payload.mHigh);
+        assertEquals(WeatherPayload.MINUS_ZERO, payload.mLow);
+        assertEquals(2, payload.mDayCount);
+        assertEquals(500, payload.mDayWeatherIds[1]);
+        assertEquals(-13, payload.mDayHighs[1]);
+        assertEquals(-20, payload.mDayLows[1]);
+    }
+
+    public void testRejectsUnknownOrShortPayloads() {
+        WeatherPayload payload = new WeatherPayload();
+        assertTrue(payload.decode(encode(WeatherPayload.VERSION, 0, 800, 10, 5)));
+
+        assertFalse(payload.decode(encode(1, 0, 500, 0, 0)));
+        assertFalse(payload.decode(encode(WeatherPayload.VERSION + 1, 0, 500, 0, 0)));
+        byte[] truncated = encode(WeatherPayload.VERSION, 0, 500, 0, 0, 800, 30, 20);
+        assertFalse(payload.decode(Arrays.copyOf(truncated, truncated.length - 1)));
+        assertFalse(payload.decode(new byte[3]));
+
+        assertEquals("Error: a rejected payload should leave the last one",
+                800, payload.mWeatherId);
+    }
+
+    public void testFormatTemperature() {
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.US);
+            assertEquals("22\u00B0", WeatherPayload.formatTemperature(22));
+            assertEquals("-5\u00B0", WeatherPayload.formatTemperature(-5));
+            assertEquals("0\u00B0", WeatherPayload.formatTemperature(0));
+            assertEquals("-0\u00B0",
+                    WeatherPayload.formatTemperature(WeatherPayload.MINUS_ZERO));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testDecodeDoesntAllocate() {
+        WeatherPayload payload = new WeatherPayload();
+        byte[] data = encode(WeatherPayload.VERSION, 0, 321, 24, 12, 800, 30, 20);
+        payload.decode(data);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        try {
+            for (int i = 0; i < 1000; i++) {
+                payload.decode(data);
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        assertEquals("Error: decoding should not allocate", 0, Debug.getThreadAllocCount());
+    }
+
+    public void testDecodeSpeedAgainstDataMap() {
+        final int iterations = 20000;
+        DataMap config = new DataMap();
+        config.putString("low_temp", "12\u00B0");
+        config.putString("max_temp", "23\u00B0");
+        config.putInt("weather_id", 321);
+        byte[] legacy = config.toByteArray();
+        byte[] data = encode(WeatherPayload.VERSION, 0, 321, 23, 12);
+        WeatherPayload payload = new WeatherPayload();
+
+        long checksum = 0;
+        for (int warmup = 0; warmup < 2; warmup++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                DataMap decoded = DataMap.fromByteArray(legacy);
+                checksum += decoded.getString("max_temp").length() + decoded.getInt("weather_id");
+            }
+            long legacyNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                payload.decode(data);
+                checksum -= payload.mWeatherId;
+            }
+            long payloadNanos = System.nanoTime() - start;
+
+            if (warmup == 1) {
+                Log.i(LOG_TAG, String.format(Locale.US,
+                        "Decode: DataMap %d bytes %.0f ns, WeatherPayload %d bytes %.0f ns",
+                        legacy.length, (double) legacyNanos / iterations,
+                        data.length, (double) payloadNanos / iterations));
+            }
+        }
+        assertTrue(checksum != 0);
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/*
+    Checks that the weather snapshot reads back what was written and that a missing or damaged
+    file is ignored, and times loading it the way a new engine does.
+ */
+public class TestWeatherSnapshotFile extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherSnapshotFile.class.getSimpleName();
+
+    private static final byte[] PAYLOAD = new byte[] {
+            2, 0, 0, 0, 1, 79, -56, 103, -92, 0, 1, 65, 0, 24, 0, 12, 0
+    };
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(mContext.getCacheDir(), "test_weather_snapshot");
+        mFile.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    private static Bitmap createIcon() {
+        Bitmap icon = Bitmap.createBitmap(40, 40, Bitmap.Config.ARGB_8888);
+        icon.eraseColor(Color.YELLOW);
+        icon.setPixel(3, 7, Color.BLUE);
+        return icon;
+    }
+
+    public void testRoundTrip() throws IOException {
+        Bitmap icon = createIcon();
+        WeatherSnapshotFile.write(mFile, PAYLOAD, icon);
+
+        long start = SystemClock.elapsedRealtime();
+        WeatherSnapshotFile.Snapshot snapshot = WeatherSnapshotFile.load(mFile);
+        Log.i(LOG_TAG, "Loaded a " + mFile.length() + " byte snapshot in " +
+                (SystemClock.elapsedRealtime() - start) + " ms");
+
+        assertNotNull(snapshot);
+        assertTrue(Arrays.equals(PAYLOAD, snapshot.mPayload));
+        assertTrue("Error: the icon should read back unchanged", icon.sameAs(snapshot.mIcon));
+        assertTrue(new WeatherPayload().decode(snapshot.mPayload));
+    }
+
+    public void testWithoutIcon() throws IOException {
+        WeatherSnapshotFile.write(mFile, PAYLOAD, null);
+        WeatherSnapshotFile.Snapshot snapshot = WeatherSnapshotFile.load(mFile);
+        assertNotNull(snapshot);
+        assertTrue(Arrays.equals(PAYLOAD, snapshot.mPayload));
+        assertNull(snapshot.mIcon);
+    }
+
+    public void testMissingFile() {
+        assertNull(WeatherSnapshotFile.load(mFile));
+    }
+
+    public void testDamagedFileIsIgnored() throws IOException {
+        WeatherSnapshotFile.write(mFile, PAYLOAD, createIcon());
+        // Cut short in the middle of the icon
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(file.length() - 100);
+        } finally {
+            file.close();
+        }
+        assertNull("Error: a truncated snapshot should be ignored",
+                WeatherSnapshotFile.load(mFile));
+
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(new byte[] { 0, 0, 0, 9 });
+        } finally {
+            out.close();
+        }
+        assertNull("Error: a snapshot of another version should be ignored",
+                WeatherSnapshotFile.load(mFile));
+    }
+}
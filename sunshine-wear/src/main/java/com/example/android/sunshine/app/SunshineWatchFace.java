@@ -22,19 +22,14 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
-import android.graphics.Matrix;
-import android.graphics.Paint;
 import android.graphics.Rect;
-import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
-import android.text.format.DateFormat;
-import android.text.format.Time;
 import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
@@ -46,6 +41,8 @@ import com.google.android.gms.wearable.Asset;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
+import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataItemBuffer;
 import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.MessageApi;
@@ -54,12 +51,7 @@ import com.google.android.gms.wearable.Node;
 import com.google.android.gms.wearable.NodeApi;
 import com.google.android.gms.wearable.Wearable;
 
-import java.io.InputStream;
 import java.lang.ref.WeakReference;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.Locale;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
@@ -68,15 +60,6 @@ import java.util.concurrent.TimeUnit;
  * low-bit ambient mode, the text is drawn without anti-aliasing in ambient mode.
  */
 public class SunshineWatchFace extends CanvasWatchFaceService {
-    private static final Typeface NORMAL_TYPEFACE =
-            Typeface.create(Typeface.MONOSPACE, Typeface.NORMAL);
-
-    private static final Typeface BOLD_TYPEFACE =
-            Typeface.create(Typeface.MONOSPACE, Typeface.BOLD_ITALIC);
-
-    private static final Typeface ITALIC_TYPEFACE =
-            Typeface.create(Typeface.MONOSPACE, Typeface.ITALIC);
-
     /**
      * Update rate in milliseconds for interactive mode. We update once a second since seconds are
      * displayed in interactive mode.
@@ -87,6 +70,11 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
      * Handler message id for updating the time periodically in interactive mode.
      */
     private static final int MSG_UPDATE_TIME = 0;
+
+    /**
+     * How long the weather must stay the same before it is written to the snapshot file.
+     */
+    private static final long SAVE_SNAPSHOT_DELAY_MS = TimeUnit.SECONDS.toMillis(2);
     @Override
     public Engine onCreateEngine() {
         return new Engine();
@@ -98,42 +86,47 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                mTime.clear(intent.getStringExtra("time-zone"));
-                mTime.setToNow();
+                mRenderer.setTimeZone(TimeZone.getTimeZone(intent.getStringExtra("time-zone")));
             }
         };
 
         boolean mRegisteredTimeZoneReceiver = false;
-        private int TIMEOUT_MS = 36000;
-        private String mMaxTemp = "";
-        private String mMinTemp = "";
-
-        Paint mBackgroundPaint;
-        Paint mLinebreak;
-        Paint mHourPaint;
-        Paint mMinutePaint;
-        Paint mDatePaint;
-        Paint mMaxTempPaint;
-        Paint mMinTempPaint;
-        Paint mImagePaint;
-
-        Calendar mCalendar;
-        Date mDate;
-        SimpleDateFormat mDayOfWeekFormat;
-        java.text.DateFormat mDateFormat;
 
-        boolean mAmbient;
+        WatchFaceRenderer mRenderer;
+        WeatherIconLoader mIconLoader;
 
-        Time mTime;
+        boolean mAmbient;
 
-        float mXOffset;
-        float mYOffset;
-        float mLineHeight;
-        float mLineWidth;
-        float mTextSeparatorWidth;
         Bitmap mWeatherImage;
         Bitmap mGrayWeatherBitmap;
 
+        // The icons synced from the phone, and the condition the last update was for
+        WeatherIconAtlas mIconAtlas;
+        int mWeatherId = -1;
+
+        // The last weather update, and the values shown from it
+        final WeatherPayload mPayload = new WeatherPayload();
+        long mShownTimestamp = Long.MIN_VALUE;
+        int mShownHigh = Integer.MIN_VALUE;
+        int mShownLow = Integer.MIN_VALUE;
+
+        // The payload mPayload was last shown from, for the snapshot file
+        byte[] mShownPayload;
+
+        // For measuring the time from the engine starting to the first weather, and to the
+        // first frame with both temperatures and icon
+        long mCreatedAt;
+        boolean mCompleteFrameDrawn;
+
+        boolean mSnapshotPending;
+        final Runnable mSaveSnapshot = new Runnable() {
+            @Override
+            public void run() {
+                mSnapshotPending = false;
+                WeatherSnapshotFile.save(SunshineWatchFace.this, mShownPayload, mWeatherImage);
+            }
+        };
+
         /**
          * Whether the display supports fewer bits for each color in ambient mode. When true, we
          * disable anti-aliasing in ambient mode.
@@ -143,43 +136,53 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
         @Override
         public void onCreate(SurfaceHolder holder) {
             super.onCreate(holder);
+            mCreatedAt = SystemClock.elapsedRealtime();
 
             setWatchFaceStyle(new WatchFaceStyle.Builder(SunshineWatchFace.this)
                     .setCardPeekMode(WatchFaceStyle.PEEK_MODE_VARIABLE)
                     .setBackgroundVisibility(WatchFaceStyle.BACKGROUND_VISIBILITY_INTERRUPTIVE)
                     .setShowSystemUiTime(false)
                     .build());
-            obtainWeatherInfo();
-            Resources resources = SunshineWatchFace.this.getResources();
-            mYOffset = resources.getDimension(R.dimen.digital_y_offset);
-            mLineHeight = resources.getDimension(R.dimen.regular_line_height);
-            mLineWidth = resources.getDimension(R.dimen.line_width);
-            mTextSeparatorWidth = resources.getDimension(R.dimen.text_separator);
-
-            mBackgroundPaint = new Paint();
-            mBackgroundPaint.setColor(resources.getColor(R.color.primary));
-
-            mHourPaint = createTextPaint(resources.getColor(R.color.digital_text), BOLD_TYPEFACE);
-            mMinutePaint = createTextPaint(resources.getColor(R.color.digital_text), NORMAL_TYPEFACE);
-            mMaxTempPaint = createTextPaint(resources.getColor(R.color.digital_text), BOLD_TYPEFACE);
-            mMaxTempPaint.setTextAlign(Paint.Align.CENTER);
-            mMinTempPaint = createTextPaint(resources.getColor(R.color.digital_text), NORMAL_TYPEFACE);
-            mDatePaint = createTextPaint(resources.getColor(R.color.digital_text), ITALIC_TYPEFACE);
-            mDatePaint.setTextAlign(Paint.Align.CENTER);
-            mImagePaint = new Paint();
-            mImagePaint.setTextAlign(Paint.Align.CENTER);
-            mLinebreak = new Paint();
-            mLinebreak.setColor(resources.getColor(R.color.digital_text));
-
-            mTime = new Time();
-            mCalendar = Calendar.getInstance();
-            mDate = new Date();
-            initFormats();
+            mRenderer = new WatchFaceRenderer(SunshineWatchFace.this);
+            mIconLoader = new WeatherIconLoader(mGoogleApiClient);
+            restoreSnapshot();
+        }
+
+        // Shows the weather from the last engine until the phone's arrives
+        private void restoreSnapshot() {
+            WeatherSnapshotFile.Snapshot snapshot =
+                    WeatherSnapshotFile.load(WeatherSnapshotFile.getFile(SunshineWatchFace.this));
+            if (snapshot == null) {
+                return;
+            }
+            if (snapshot.mIcon != null) {
+                mWeatherImage = snapshot.mIcon;
+                mRenderer.setWeatherImage(snapshot.mIcon);
+            }
+            onPayload(snapshot.mPayload, "snapshot");
+            // It is already on disk
+            mSnapshotPending = false;
+            mUpdateTimeHandler.removeCallbacks(mSaveSnapshot);
+        }
+
+        // Saves what is shown once updates stop arriving for a moment
+        private void saveSnapshot() {
+            if (mShownPayload != null) {
+                mSnapshotPending = true;
+                mUpdateTimeHandler.removeCallbacks(mSaveSnapshot);
+                mUpdateTimeHandler.postDelayed(mSaveSnapshot, SAVE_SNAPSHOT_DELAY_MS);
+            }
         }
 
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            if (mSnapshotPending) {
+                mUpdateTimeHandler.removeCallbacks(mSaveSnapshot);
+                mSaveSnapshot.run();
+            }
+            mRenderer.releaseLayer();
+            mIconLoader.shutdown();
             super.onDestroy();
         }
 
@@ -206,25 +209,95 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             Wearable.DataApi.addListener(mGoogleApiClient, this);
             Wearable.NodeApi.addListener(mGoogleApiClient, this);
             Wearable.MessageApi.addListener(mGoogleApiClient, this);
+            // The Data Layer keeps the latest weather and the icon atlas the phone published,
+            // even while it is out of reach, so the phone is only asked for what is missing.
+            Wearable.DataApi.getDataItems(mGoogleApiClient)
+                    .setResultCallback(new ResultCallback<DataItemBuffer>() {
+                        @Override
+                        public void onResult(DataItemBuffer dataItems) {
+                            boolean hasWeather = false;
+                            boolean hasIconAtlas = false;
+                            for (DataItem item : dataItems) {
+                                if (isIconAtlas(item)) {
+                                    hasIconAtlas = true;
+                                    if (mIconAtlas == null) {
+                                        loadIconAtlas(item);
+                                    }
+                                } else if (isWeatherState(item)) {
+                                    hasWeather = true;
+                                    loadWeatherState(item, "stored weather");
+                                }
+                            }
+                            dataItems.release();
+                            if (SunshineWearUtils.shouldRequestWeather(hasWeather, hasIconAtlas)) {
+                                obtainWeatherInfo();
+                            }
+                        }
+                    });
         }
 
-        public static final  String KEY_WEATHER_LOW_TEMP = "low_temp";
-        public static final  String KEY_WEATHER_MAX_TEMP = "max_temp";
-        public static final  String KEY_WEATHER_ICON = "weather_icon";
-
         @Override
         public void onDataChanged(DataEventBuffer dataEventBuffer) {
             for (DataEvent event : dataEventBuffer) {
-                if (event.getType() == DataEvent.TYPE_CHANGED &&
-                        event.getDataItem().getUri().getPath().equals("/image")) {
+                if (event.getType() != DataEvent.TYPE_CHANGED) {
+                    continue;
+                }
+                DataItem item = event.getDataItem();
+                if (isIconAtlas(item)) {
                     Log.d(TAG, "onDataChanged " + event.toString());
-//                    event.getDataItem();
-                    DataMapItem dataMapItem = DataMapItem.fromDataItem(event.getDataItem());
-                    Asset profileAsset = dataMapItem.getDataMap().getAsset(KEY_WEATHER_ICON);
-                    mWeatherImage = loadBitmapFromAsset(profileAsset);
-                    Log.d(TAG, "onDataChanged " + (mWeatherImage == null));
-                    invalidate();
+                    loadIconAtlas(item);
+                } else if (isWeatherState(item)) {
+                    loadWeatherState(item, "weather update");
+                }
+            }
+        }
+
+        private boolean isWeatherState(DataItem item) {
+            return SunshineWearUtils.PATH_WEATHER_STATE.equals(item.getUri().getPath());
+        }
+
+        private void loadWeatherState(DataItem item, String source) {
+            byte[] payload = DataMapItem.fromDataItem(item).getDataMap()
+                    .getByteArray(SunshineWearUtils.KEY_PAYLOAD);
+            onPayload(payload, source);
+        }
+
+        private boolean isIconAtlas(DataItem item) {
+            return SunshineWearUtils.PATH_ICON_ATLAS.equals(item.getUri().getPath());
+        }
+
+        private void loadIconAtlas(DataItem item) {
+            DataMap dataMap = DataMapItem.fromDataItem(item).getDataMap();
+            int version = dataMap.getInt(SunshineWearUtils.KEY_ATLAS_VERSION);
+            Asset atlasAsset = dataMap.getAsset(SunshineWearUtils.KEY_ATLAS);
+            if (version != SunshineWearUtils.ICON_ATLAS_VERSION || atlasAsset == null) {
+                Log.w(TAG, "Ignoring icon atlas version " + version);
+                return;
+            }
+            final int iconSize = dataMap.getInt(SunshineWearUtils.KEY_ICON_SIZE);
+            mIconLoader.load(atlasAsset, new WeatherIconLoader.Callback() {
+                @Override
+                public void onIconLoaded(Bitmap atlas) {
+                    if (mIconAtlas == null || !mIconAtlas.isFrom(atlas)) {
+                        mIconAtlas = WeatherIconAtlas.fromBitmap(atlas, iconSize);
+                        showWeatherIcon();
+                    }
                 }
+            });
+        }
+
+        // Shows the icon for mWeatherId, once both it and the atlas have arrived
+        private void showWeatherIcon() {
+            if (mIconAtlas == null) {
+                // Keep the icon from the snapshot, if any, until the atlas is loaded
+                return;
+            }
+            Bitmap icon = mIconAtlas.getIcon(mWeatherId);
+            if (icon != mWeatherImage) {
+                mWeatherImage = icon;
+                saveSnapshot();
+                mRenderer.setWeatherImage(icon);
+                invalidate();
             }
         }
 
@@ -242,18 +315,44 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
         public void onMessageReceived(MessageEvent messageEvent) {
             Log.d(TAG, "You have a message from " + messageEvent.getPath());
             if(messageEvent.getPath().equalsIgnoreCase(SunshineWearUtils.PATH_WEATHER_UPDATE)){
-                byte[] rawData = messageEvent.getData();
-                DataMap weatherDataMap = DataMap.fromByteArray(rawData);
-                mMaxTemp = weatherDataMap.getString("max_temp");
-                mMinTemp = weatherDataMap.getString("low_temp");
-//                        mWeatherImage = loadBitmapFromAsset(weatherDataMap.getAsset(KEY_WEATHER_ICON));
+                onPayload(messageEvent.getData(), "weather message");
+            }
+        }
+
+        // Decodes and shows a payload, and saves it if it was newer than what was shown
+        private void onPayload(byte[] payload, String source) {
+            if (mPayload.decode(payload) && showPayload(source)) {
+                mShownPayload = payload;
+                saveSnapshot();
+            }
+        }
+
+        // Shows what was just decoded into mPayload, unless something newer is already shown
+        private boolean showPayload(String source) {
+            if (mPayload.mTimestamp < mShownTimestamp) {
+                return false;
+            }
+            if (mShownTimestamp == Long.MIN_VALUE) {
+                Log.i(TAG, "Time to first weather: " +
+                        (SystemClock.elapsedRealtime() - mCreatedAt) + " ms, from " + source);
+            }
+            mShownTimestamp = mPayload.mTimestamp;
+            // Only format when a temperature changed; they are already in the user's units
+            if (mPayload.mHigh != mShownHigh || mPayload.mLow != mShownLow) {
+                mShownHigh = mPayload.mHigh;
+                mShownLow = mPayload.mLow;
+                mRenderer.setTemperatures(WeatherPayload.formatTemperature(mShownHigh),
+                        WeatherPayload.formatTemperature(mShownLow));
                 invalidate();
             }
+            mWeatherId = mPayload.mWeatherId;
+            showWeatherIcon();
+            return true;
         }
 
         @Override
         public void onPeerConnected(Node node) {
-            obtainWeatherInfo();
+            // The weather state item arrives by itself once the phone is back
         }
 
         @Override
@@ -261,13 +360,6 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
 
         }
 
-        private void initFormats() {
-            mDayOfWeekFormat = new SimpleDateFormat("ddd, MM d yyyy", Locale.getDefault());
-            mDayOfWeekFormat.setCalendar(mCalendar);
-            mDateFormat = DateFormat.getDateFormat(SunshineWatchFace.this);
-            mDateFormat.setCalendar(mCalendar);
-        }
-
 //        private void initGrayBackgroundBitmap() {
 //            mGrayWeatherBitmap = Bitmap.createBitmap(
 //                    mWeatherImage.getWidth(),
@@ -282,14 +374,6 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
 //            canvas.drawBitmap(mWeatherImage, mYOffset, mYOffset + mLineHeight * 4, mImagePaint);
 //        }
 
-        private Paint createTextPaint(int textColor, Typeface typeface) {
-            Paint paint = new Paint();
-            paint.setColor(textColor);
-            paint.setTypeface(typeface);
-            paint.setAntiAlias(true);
-            return paint;
-        }
-
         @Override
         public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
             super.onSurfaceChanged(holder, format, width, height);
@@ -305,8 +389,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                 registerReceiver();
                 mGoogleApiClient.connect();
                 // Update time zone in case it changed while we weren't visible.
-                mTime.clear(TimeZone.getDefault().getID());
-                mTime.setToNow();
+                mRenderer.setTimeZone(TimeZone.getDefault());
             } else {
                 unregisterReceiver();
                 if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
@@ -347,23 +430,18 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             // Load resources that have alternate values for round watches.
             Resources resources = SunshineWatchFace.this.getResources();
             boolean isRound = insets.isRound();
-            mXOffset = resources.getDimension(isRound
-                    ? R.dimen.digital_x_offset_round : R.dimen.digital_x_offset);
             float textSize = resources.getDimension(isRound
                     ? R.dimen.digital_text_size_round : R.dimen.digital_text_size);
             float dateSize = resources.getDimension(isRound
                     ? R.dimen.digital_date_text_size_round : R.dimen.digital_date_text_size);
-            mHourPaint.setTextSize(textSize);
-            mMinutePaint.setTextSize(textSize);
-            mMaxTempPaint.setTextSize(textSize);
-            mMinTempPaint.setTextSize(textSize);
-            mDatePaint.setTextSize(dateSize);
+            mRenderer.setTextSizes(textSize, dateSize);
         }
 
         @Override
         public void onPropertiesChanged(Bundle properties) {
             super.onPropertiesChanged(properties);
             mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
+            mRenderer.setLowBitAmbient(mLowBitAmbient);
         }
 
         @Override
@@ -377,22 +455,9 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             super.onAmbientModeChanged(inAmbientMode);
             if (mAmbient != inAmbientMode) {
                 mAmbient = inAmbientMode;
-                if (mLowBitAmbient) {
-                    mBackgroundPaint.setColor(getColor(R.color.black));
-                    mBackgroundPaint.setAntiAlias(!inAmbientMode);
-                    mHourPaint.setAntiAlias(!inAmbientMode);
-                    mLinebreak.setAntiAlias(!inAmbientMode);
-                    mMinutePaint.setAntiAlias(!inAmbientMode);
-                    mDatePaint.setAntiAlias(!inAmbientMode);
-                    mMaxTempPaint.setAntiAlias(!inAmbientMode);
-                    mMinTempPaint.setAntiAlias(!inAmbientMode);
-                    mImagePaint.setAntiAlias(!inAmbientMode);
-
-                }
+                mRenderer.setAmbient(inAmbientMode);
                 invalidate();
             }
-            //updating weather info when not in ambient mode
-            if(!mAmbient) obtainWeatherInfo();
             // Whether the timer should be running depends on whether we're visible (as well as
             // whether we're in ambient mode), so we may need to start or stop the timer.
             updateTimer();
@@ -400,32 +465,12 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-            mTime.setToNow();
-            String hour = String.format("%d", mTime.hour);
-            String minutes = mAmbient ? String.format(":%02d", mTime.minute) : String.format(":%02d:%02d", mTime.minute, mTime.second);
-
-            // Draw the background.
-            canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
-
-            // Draw H:MM in ambient mode or H:MM:SS in interactive mode.
-            int middleX = bounds.width()/2;
-
-            float positionTime = middleX - (mHourPaint.measureText(hour)+mMinutePaint.measureText(minutes))/2;
-            canvas.drawText(hour, positionTime, mYOffset, mHourPaint);
-
-            positionTime += mHourPaint.measureText(hour);
-            canvas.drawText(minutes, positionTime, mYOffset, mMinutePaint);
-
-            canvas.drawText(
-                    mDateFormat.format(mDate),
-                    middleX, mYOffset + mLineHeight * 2, mDatePaint);
-
-            canvas.drawLine(middleX - mLineWidth / 2, mYOffset + mLineHeight * 3, middleX + mLineWidth / 2, mYOffset + mLineHeight * 3 + 1, mLinebreak);
-
-            canvas.drawText(mMaxTemp, middleX, mYOffset + mLineHeight * 7, mMaxTempPaint);
-            canvas.drawText(mMinTemp, middleX + mTextSeparatorWidth, mYOffset + mLineHeight * 7, mMinTempPaint);
-            if (mWeatherImage!=null) canvas.drawBitmap(mWeatherImage, middleX - mTextSeparatorWidth * 2,  mYOffset + mLineHeight * 4, mImagePaint);
-
+            mRenderer.draw(canvas, bounds, System.currentTimeMillis());
+            if (!mCompleteFrameDrawn && mShownPayload != null && mWeatherImage != null) {
+                mCompleteFrameDrawn = true;
+                Log.i(TAG, "Time to first complete frame: " +
+                        (SystemClock.elapsedRealtime() - mCreatedAt) + " ms");
+            }
         }
 
         /**
@@ -459,29 +504,6 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                 mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
             }
         }
-
-        public Bitmap loadBitmapFromAsset(Asset asset) {
-            if (asset == null) {
-                throw new IllegalArgumentException("Asset must be non-null");
-            }
-            ConnectionResult result = mGoogleApiClient.blockingConnect(TIMEOUT_MS, TimeUnit.MILLISECONDS);
-            if (!result.isSuccess()) {
-                return null;
-            }
-            // convert asset into a file descriptor and block until it's ready
-            InputStream assetInputStream = Wearable.DataApi.getFdForAsset(
-                    mGoogleApiClient, asset).await().getInputStream();
-            mGoogleApiClient.disconnect();
-
-            if (assetInputStream == null) {
-                Log.w(TAG, "Requested an unknown Asset.");
-                return null;
-            }
-            invalidate();
-            // decode the stream into a bitmap
-            return BitmapFactory.decodeStream(assetInputStream);
-        }
-
     }
 
     private static class EngineHandler extends Handler {
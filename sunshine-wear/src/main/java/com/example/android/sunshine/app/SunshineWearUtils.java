@@ -7,4 +7,75 @@ public class SunshineWearUtils {
 
     public static final String PATH_WEATHER_UPDATE = "/WeatherWatchFace/WeatherUpdate";
 
+    // Today's weather the phone keeps in the Data Layer; see the phone's WearWeatherState
+    public static final String PATH_WEATHER_STATE = "/WeatherWatchFace/WeatherState";
+    public static final String KEY_PAYLOAD = "payload";
+
+    // The icon atlas the phone puts in the Data Layer; see the phone's WearIconAtlas
+    public static final String PATH_ICON_ATLAS = "/WeatherWatchFace/IconAtlas";
+    public static final String KEY_ATLAS_VERSION = "atlas_version";
+    public static final String KEY_ICON_SIZE = "icon_size";
+    public static final String KEY_ATLAS = "atlas";
+
+    /**
+     * The atlas layout this watch face understands.  Must match WearIconAtlas.VERSION.
+     */
+    public static final int ICON_ATLAS_VERSION = 1;
+
+    // Positions of the icons in the atlas
+    public static final int ICON_CLEAR = 0;
+    public static final int ICON_LIGHT_CLOUDS = 1;
+    public static final int ICON_CLOUDS = 2;
+    public static final int ICON_FOG = 3;
+    public static final int ICON_LIGHT_RAIN = 4;
+    public static final int ICON_RAIN = 5;
+    public static final int ICON_SNOW = 6;
+    public static final int ICON_STORM = 7;
+    public static final int ICON_COUNT = 8;
+
+    /**
+     * Whether to ask the phone for the weather after reading the Data Layer.  A phone that
+     * hasn't published yet still answers requests, and answering one also puts the icon atlas,
+     * so the watch asks while either item is missing.
+     */
+    public static boolean shouldRequestWeather(boolean hasWeather, boolean hasIconAtlas) {
+        return !hasWeather || !hasIconAtlas;
+    }
+
+    /**
+     * Helper method to provide the atlas icon according to the weather condition id returned
+     * by the OpenWeatherMap call.  The same mapping as the phone's
+     * Utility.getArtResourceForWeatherCondition.
+     * @param weatherId from OpenWeatherMap API response
+     * @return position of the icon in the atlas, -1 if no relation is found.
+     */
+    public static int getIconForWeatherCondition(int weatherId) {
+        // Based on weather code data found at:
+        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+        if (weatherId >= 200 && weatherId <= 232) {
+            return ICON_STORM;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return ICON_LIGHT_RAIN;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return ICON_RAIN;
+        } else if (weatherId == 511) {
+            return ICON_SNOW;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return ICON_RAIN;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return ICON_SNOW;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return ICON_FOG;
+        } else if (weatherId == 761 || weatherId == 781) {
+            return ICON_STORM;
+        } else if (weatherId == 800) {
+            return ICON_CLEAR;
+        } else if (weatherId == 801) {
+            return ICON_LIGHT_CLOUDS;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return ICON_CLOUDS;
+        }
+        return -1;
+    }
+
 }
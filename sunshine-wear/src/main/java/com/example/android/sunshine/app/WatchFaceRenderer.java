@@ -0,0 +1,353 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.text.format.DateFormat;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Draws the Sunshine watch face.
+ *
+ * {@link #draw} runs once a second in interactive mode, so it doesn't allocate: the time is
+ * worked out from the zone offset and written into char buffers, text is only rebuilt when the
+ * value it shows changes (the date once a day), and text widths are measured only when the
+ * text or the paint changes.
+ *
+ * Everything but the time (background, date, divider, temperatures and weather image) is drawn
+ * once into a layer the size of the face and kept until one of them changes, so a tick only
+ * copies the layer and draws the time on top of it.
+ */
+class WatchFaceRenderer {
+    private static final Typeface NORMAL_TYPEFACE =
+            Typeface.create(Typeface.MONOSPACE, Typeface.NORMAL);
+
+    private static final Typeface BOLD_TYPEFACE =
+            Typeface.create(Typeface.MONOSPACE, Typeface.BOLD_ITALIC);
+
+    private static final Typeface ITALIC_TYPEFACE =
+            Typeface.create(Typeface.MONOSPACE, Typeface.ITALIC);
+
+    private static final long SECOND_IN_MILLIS = 1000;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * SECOND_IN_MILLIS;
+
+    // ":MM" in ambient mode, ":MM:SS" in interactive mode
+    private static final int MINUTES_LENGTH_AMBIENT = 3;
+    private static final int MINUTES_LENGTH_INTERACTIVE = 6;
+
+    private final Context mContext;
+
+    private final Paint mBackgroundPaint;
+    private final Paint mLinebreak;
+    private final Paint mHourPaint;
+    private final Paint mMinutePaint;
+    private final Paint mDatePaint;
+    private final Paint mMaxTempPaint;
+    private final Paint mMinTempPaint;
+    private final Paint mImagePaint;
+
+    private final int mBackgroundColor;
+    private final int mAmbientBackgroundColor;
+
+    private final float mYOffset;
+    private final float mLineHeight;
+    private final float mLineWidth;
+    private final float mTextSeparatorWidth;
+
+    private TimeZone mTimeZone;
+    private final Calendar mCalendar;
+    private final Date mDate = new Date();
+    private java.text.DateFormat mDateFormat;
+
+    private boolean mAmbient;
+    private boolean mLowBitAmbient;
+
+    /**
+     * The weather shown on the face.  Immutable, so it can be handed to the draw thread whole.
+     */
+    static final class Weather {
+        static final Weather EMPTY = new Weather("", "", null);
+
+        final String mMaxTemp;
+        final String mMinTemp;
+        final Bitmap mImage;
+
+        Weather(String maxTemp, String minTemp, Bitmap image) {
+            mMaxTemp = maxTemp != null ? maxTemp : "";
+            mMinTemp = minTemp != null ? minTemp : "";
+            mImage = image;
+        }
+
+        Weather withTemperatures(String maxTemp, String minTemp) {
+            return new Weather(maxTemp, minTemp, mImage);
+        }
+
+        Weather withImage(Bitmap image) {
+            return new Weather(mMaxTemp, mMinTemp, image);
+        }
+    }
+
+    private volatile Weather mWeather = Weather.EMPTY;
+    // The snapshot the layer was drawn with
+    private Weather mDrawnWeather;
+
+    // What is on screen, and the text and measurements derived from it.  -1 means "rebuild".
+    private final char[] mHourChars = new char[2];
+    private int mHourLength;
+    private int mShownHour = -1;
+    private float mHourWidth;
+
+    private final char[] mMinuteChars = new char[MINUTES_LENGTH_INTERACTIVE];
+    private int mShownMinute = -1;
+    private int mShownSecond = -1;
+    // The typeface is monospaced, so the minutes are as wide as any other of the same length
+    private int mMeasuredMinutesLength = -1;
+    private float mMinutesWidth;
+
+    private long mShownDay = Long.MIN_VALUE;
+    private String mDateText = "";
+
+    // The static part of the face, redrawn only when mLayerDirty is set
+    private Bitmap mLayer;
+    private Canvas mLayerCanvas;
+    private boolean mLayerDirty = true;
+
+    WatchFaceRenderer(Context context) {
+        mContext = context;
+        Resources resources = context.getResources();
+        mYOffset = resources.getDimension(R.dimen.digital_y_offset);
+        mLineHeight = resources.getDimension(R.dimen.regular_line_height);
+        mLineWidth = resources.getDimension(R.dimen.line_width);
+        mTextSeparatorWidth = resources.getDimension(R.dimen.text_separator);
+
+        mBackgroundColor = resources.getColor(R.color.primary);
+        mAmbientBackgroundColor = resources.getColor(R.color.black);
+        mBackgroundPaint = new Paint();
+        mBackgroundPaint.setColor(mBackgroundColor);
+
+        int textColor = resources.getColor(R.color.digital_text);
+        mHourPaint = createTextPaint(textColor, BOLD_TYPEFACE);
+        mMinutePaint = createTextPaint(textColor, NORMAL_TYPEFACE);
+        mMaxTempPaint = createTextPaint(textColor, BOLD_TYPEFACE);
+        mMaxTempPaint.setTextAlign(Paint.Align.CENTER);
+        mMinTempPaint = createTextPaint(textColor, NORMAL_TYPEFACE);
+        mDatePaint = createTextPaint(textColor, ITALIC_TYPEFACE);
+        mDatePaint.setTextAlign(Paint.Align.CENTER);
+        mImagePaint = new Paint();
+        mImagePaint.setTextAlign(Paint.Align.CENTER);
+        mLinebreak = new Paint();
+        mLinebreak.setColor(textColor);
+
+        mTimeZone = TimeZone.getDefault();
+        mCalendar = Calendar.getInstance(mTimeZone);
+        initFormats();
+    }
+
+    private static Paint createTextPaint(int textColor, Typeface typeface) {
+        Paint paint = new Paint();
+        paint.setColor(textColor);
+        paint.setTypeface(typeface);
+        paint.setAntiAlias(true);
+        return paint;
+    }
+
+    private void initFormats() {
+        mDateFormat = DateFormat.getDateFormat(mContext);
+        mDateFormat.setCalendar(mCalendar);
+        mShownDay = Long.MIN_VALUE;
+    }
+
+    /**
+     * Call when the time zone, or the user's date format, may have changed.
+     */
+    void setTimeZone(TimeZone timeZone) {
+        mTimeZone = timeZone;
+        mCalendar.setTimeZone(timeZone);
+        initFormats();
+        mShownHour = -1;
+        mShownMinute = -1;
+        mLayerDirty = true;
+    }
+
+    void setTextSizes(float textSize, float dateSize) {
+        mHourPaint.setTextSize(textSize);
+        mMinutePaint.setTextSize(textSize);
+        mMaxTempPaint.setTextSize(textSize);
+        mMinTempPaint.setTextSize(textSize);
+        mDatePaint.setTextSize(dateSize);
+        mShownHour = -1;
+        mMeasuredMinutesLength = -1;
+        mLayerDirty = true;
+    }
+
+    void setLowBitAmbient(boolean lowBitAmbient) {
+        mLowBitAmbient = lowBitAmbient;
+        mLayerDirty = true;
+    }
+
+    void setAmbient(boolean ambient) {
+        mAmbient = ambient;
+        if (mLowBitAmbient) {
+            mBackgroundPaint.setColor(ambient ? mAmbientBackgroundColor : mBackgroundColor);
+            mBackgroundPaint.setAntiAlias(!ambient);
+            mHourPaint.setAntiAlias(!ambient);
+            mLinebreak.setAntiAlias(!ambient);
+            mMinutePaint.setAntiAlias(!ambient);
+            mDatePaint.setAntiAlias(!ambient);
+            mMaxTempPaint.setAntiAlias(!ambient);
+            mMinTempPaint.setAntiAlias(!ambient);
+            mImagePaint.setAntiAlias(!ambient);
+        }
+        mLayerDirty = true;
+    }
+
+    void setTemperatures(String maxTemp, String minTemp) {
+        mWeather = mWeather.withTemperatures(maxTemp, minTemp);
+    }
+
+    void setWeatherImage(Bitmap weatherImage) {
+        mWeather = mWeather.withImage(weatherImage);
+    }
+
+    /**
+     * Releases the layer.  It is rebuilt on the next frame.
+     */
+    void releaseLayer() {
+        if (mLayer != null) {
+            mLayer.recycle();
+            mLayer = null;
+            mLayerCanvas = null;
+        }
+        mLayerDirty = true;
+    }
+
+    String getDateText() {
+        return mDateText;
+    }
+
+    /**
+     * Draws the face for the given time, redrawing the layer first as if it had changed.  For
+     * measuring a frame that draws the whole face.
+     */
+    void drawRedrawingLayer(Canvas canvas, Rect bounds, long nowMillis) {
+        mLayerDirty = true;
+        draw(canvas, bounds, nowMillis);
+    }
+
+    /**
+     * Draws the face for the given time.
+     */
+    void draw(Canvas canvas, Rect bounds, long nowMillis) {
+        updateTime(nowMillis);
+        int minutesLength = mAmbient ? MINUTES_LENGTH_AMBIENT : MINUTES_LENGTH_INTERACTIVE;
+        if (mMeasuredMinutesLength != minutesLength) {
+            mMinutesWidth = mMinutePaint.measureText(mMinuteChars, 0, minutesLength);
+            mMeasuredMinutesLength = minutesLength;
+        }
+
+        Weather weather = mWeather;
+        if (weather != mDrawnWeather) {
+            mDrawnWeather = weather;
+            mLayerDirty = true;
+        }
+
+        int width = bounds.width();
+        int height = bounds.height();
+        if (mLayer == null || mLayer.getWidth() != width || mLayer.getHeight() != height) {
+            releaseLayer();
+            mLayer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mLayerCanvas = new Canvas(mLayer);
+        }
+        if (mLayerDirty) {
+            drawStatic(mLayerCanvas, bounds, weather);
+            mLayerDirty = false;
+        }
+        canvas.drawBitmap(mLayer, 0, 0, null);
+
+        // Draw H:MM in ambient mode or H:MM:SS in interactive mode.
+        int middleX = bounds.width() / 2;
+
+        float positionTime = middleX - (mHourWidth + mMinutesWidth) / 2;
+        canvas.drawText(mHourChars, 0, mHourLength, positionTime, mYOffset, mHourPaint);
+
+        positionTime += mHourWidth;
+        canvas.drawText(mMinuteChars, 0, minutesLength, positionTime, mYOffset, mMinutePaint);
+    }
+
+    // Draws everything but the time
+    private void drawStatic(Canvas canvas, Rect bounds, Weather weather) {
+        // Draw the background.
+        canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
+
+        int middleX = bounds.width() / 2;
+
+        canvas.drawText(mDateText, middleX, mYOffset + mLineHeight * 2, mDatePaint);
+
+        canvas.drawLine(middleX - mLineWidth / 2, mYOffset + mLineHeight * 3,
+                middleX + mLineWidth / 2, mYOffset + mLineHeight * 3 + 1, mLinebreak);
+
+        canvas.drawText(weather.mMaxTemp, middleX, mYOffset + mLineHeight * 7, mMaxTempPaint);
+        canvas.drawText(weather.mMinTemp, middleX + mTextSeparatorWidth,
+                mYOffset + mLineHeight * 7, mMinTempPaint);
+        if (weather.mImage != null) {
+            canvas.drawBitmap(weather.mImage, middleX - mTextSeparatorWidth * 2,
+                    mYOffset + mLineHeight * 4, mImagePaint);
+        }
+    }
+
+    // Brings the hour, minute, second and date text up to the given time
+    private void updateTime(long nowMillis) {
+        long localMillis = nowMillis + mTimeZone.getOffset(nowMillis);
+        long day = floorDiv(localMillis, DAY_IN_MILLIS);
+        int secondOfDay = (int) ((localMillis - day * DAY_IN_MILLIS) / SECOND_IN_MILLIS);
+        int hour = secondOfDay / 3600;
+        int minute = (secondOfDay / 60) % 60;
+        int second = secondOfDay % 60;
+
+        if (day != mShownDay) {
+            mDate.setTime(nowMillis);
+            mDateText = mDateFormat.format(mDate);
+            mShownDay = day;
+            mLayerDirty = true;
+        }
+        if (hour != mShownHour) {
+            if (hour >= 10) {
+                mHourChars[0] = (char) ('0' + hour / 10);
+                mHourChars[1] = (char) ('0' + hour % 10);
+                mHourLength = 2;
+            } else {
+                mHourChars[0] = (char) ('0' + hour);
+                mHourLength = 1;
+            }
+            mHourWidth = mHourPaint.measureText(mHourChars, 0, mHourLength);
+            mShownHour = hour;
+        }
+        if (minute != mShownMinute) {
+            mMinuteChars[0] = ':';
+            mMinuteChars[1] = (char) ('0' + minute / 10);
+            mMinuteChars[2] = (char) ('0' + minute % 10);
+            mShownMinute = minute;
+        }
+        if (second != mShownSecond) {
+            mMinuteChars[3] = ':';
+            mMinuteChars[4] = (char) ('0' + second / 10);
+            mMinuteChars[5] = (char) ('0' + second % 10);
+            mShownSecond = second;
+        }
+    }
+
+    private static long floorDiv(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        if ((dividend % divisor != 0) && ((dividend < 0) != (divisor < 0))) {
+            quotient--;
+        }
+        return quotient;
+    }
+}
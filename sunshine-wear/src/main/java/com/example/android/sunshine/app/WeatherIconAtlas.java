@@ -0,0 +1,49 @@
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+
+/**
+ * The phone's weather icons, cut out of the atlas it syncs once.  Immutable.
+ */
+class WeatherIconAtlas {
+
+    private final Bitmap mSource;
+    private final Bitmap[] mIcons;
+
+    private WeatherIconAtlas(Bitmap source, Bitmap[] icons) {
+        mSource = source;
+        mIcons = icons;
+    }
+
+    /**
+     * Cuts an atlas image into its icons.
+     *
+     * @return the icons, or null if the image isn't laid out the way this watch face expects
+     */
+    static WeatherIconAtlas fromBitmap(Bitmap atlas, int iconSize) {
+        if (iconSize <= 0 || atlas.getWidth() < iconSize * SunshineWearUtils.ICON_COUNT
+                || atlas.getHeight() < iconSize) {
+            return null;
+        }
+        Bitmap[] icons = new Bitmap[SunshineWearUtils.ICON_COUNT];
+        for (int i = 0; i < icons.length; i++) {
+            icons[i] = Bitmap.createBitmap(atlas, i * iconSize, 0, iconSize, iconSize);
+        }
+        return new WeatherIconAtlas(atlas, icons);
+    }
+
+    /**
+     * @return whether these icons were cut from the given image
+     */
+    boolean isFrom(Bitmap atlas) {
+        return mSource == atlas;
+    }
+
+    /**
+     * @return the icon for an OpenWeatherMap condition id, or null if there isn't one
+     */
+    Bitmap getIcon(int weatherId) {
+        int icon = SunshineWearUtils.getIconForWeatherCondition(weatherId);
+        return icon >= 0 ? mIcons[icon] : null;
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.Wearable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns weather icon assets into bitmaps off the engine's thread.
+ *
+ * Decoded images are kept in an LRU keyed by the asset's digest, so an asset seen before, such
+ * as the icon atlas read back on every reconnect, is answered from memory without touching the
+ * Data API.  Only the latest request is delivered: an icon that finishes decoding after a newer
+ * one was asked for is cached but not reported.  Callbacks run on the thread that created the
+ * loader.
+ */
+class WeatherIconLoader {
+    private static final String TAG = "sunshine-wear";
+
+    private static final long TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+
+    // Icons are a few KB each once decoded
+    private static final int CACHE_SIZE_BYTES = 1024 * 1024;
+
+    interface Callback {
+        void onIconLoaded(Bitmap icon);
+    }
+
+    private final GoogleApiClient mGoogleApiClient;
+    private final Handler mHandler = new Handler();
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    private final LruCache<String, Bitmap> mCache =
+            new LruCache<String, Bitmap>(CACHE_SIZE_BYTES) {
+        @Override
+        protected int sizeOf(String digest, Bitmap icon) {
+            return icon.getByteCount();
+        }
+    };
+
+    // Bumped on every request; a decode reports back only if it is still the latest
+    private int mRequest;
+
+    /**
+     * @param googleApiClient the engine's client.  The loader neither connects nor disconnects
+     *                        it; an asset that arrives while it is disconnected is dropped.
+     */
+    WeatherIconLoader(GoogleApiClient googleApiClient) {
+        mGoogleApiClient = googleApiClient;
+    }
+
+    /**
+     * Loads the asset, calling back right away if its icon is cached.
+     */
+    void load(final Asset asset, final Callback callback) {
+        final int request = ++mRequest;
+        final String digest = asset.getDigest();
+        if (digest != null) {
+            Bitmap icon = mCache.get(digest);
+            if (icon != null) {
+                callback.onIconLoaded(icon);
+                return;
+            }
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap icon = decode(asset);
+                if (icon == null) {
+                    return;
+                }
+                if (digest != null) {
+                    mCache.put(digest, icon);
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (request == mRequest) {
+                            callback.onIconLoaded(icon);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stops the background thread.  Pending loads are dropped.
+     */
+    void shutdown() {
+        mRequest++;
+        mExecutor.shutdownNow();
+        mHandler.removeCallbacksAndMessages(null);
+    }
+
+    private Bitmap decode(Asset asset) {
+        if (!mGoogleApiClient.isConnected()) {
+            return null;
+        }
+        DataApi.GetFdForAssetResult result = Wearable.DataApi.getFdForAsset(
+                mGoogleApiClient, asset).await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        InputStream assetInputStream = result.getInputStream();
+        if (!result.getStatus().isSuccess() || assetInputStream == null) {
+            Log.w(TAG, "Requested an unknown Asset.");
+            result.release();
+            return null;
+        }
+        try {
+            return BitmapFactory.decodeStream(assetInputStream);
+        } finally {
+            try {
+                assetInputStream.close();
+            } catch (IOException e) {
+                // nothing left to read
+            }
+            result.release();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.android.sunshine.app;
+
+import java.util.Locale;
+
+/**
+ * Decodes the weather update the phone sends; the layout is documented on the phone's
+ * WeatherPayload.  One instance is reused for every message, so decoding allocates nothing.
+ */
+class WeatherPayload {
+
+    static final int VERSION = 2;
+
+    static final int FLAG_IMPERIAL = 1;
+
+    // A temperature just below zero, which the phone shows as "-0"
+    static final int MINUS_ZERO = Short.MIN_VALUE;
+
+    static final int HEADER_SIZE = 17;
+    static final int DAY_SIZE = 6;
+
+    // Days past this many are skipped
+    static final int MAX_DAYS = 16;
+
+    int mFlags;
+    long mTimestamp;
+    int mWeatherId;
+    // Whole degrees in the user's units
+    int mHigh;
+    int mLow;
+
+    int mDayCount;
+    final int[] mDayWeatherIds = new int[MAX_DAYS];
+    final int[] mDayHighs = new int[MAX_DAYS];
+    final int[] mDayLows = new int[MAX_DAYS];
+
+    /**
+     * Reads a payload into this object.
+     *
+     * @return false, leaving this object as it was, if the payload is of another version or
+     * cut short
+     */
+    boolean decode(byte[] data) {
+        if (data == null || data.length < HEADER_SIZE || data[0] != VERSION) {
+            return false;
+        }
+        int dayCount = data[16] & 0xff;
+        if (data.length < HEADER_SIZE + dayCount * DAY_SIZE) {
+            return false;
+        }
+        mFlags = data[1] & 0xff;
+        mTimestamp = readLong(data, 2);
+        mWeatherId = readShort(data, 10);
+        mHigh = readShort(data, 12);
+        mLow = readShort(data, 14);
+        mDayCount = Math.min(dayCount, MAX_DAYS);
+        for (int i = 0; i < mDayCount; i++) {
+            int offset = HEADER_SIZE + i * DAY_SIZE;
+            mDayWeatherIds[i] = readShort(data, offset);
+            mDayHighs[i] = readShort(data, offset + 2);
+            mDayLows[i] = readShort(data, offset + 4);
+        }
+        return true;
+    }
+
+    boolean isImperial() {
+        return (mFlags & FLAG_IMPERIAL) != 0;
+    }
+
+    /**
+     * Formats a temperature the phone already rounded, in the user's units, the way the
+     * phone's Utility.formatTemperature shows it.
+     */
+    static String formatTemperature(int degrees) {
+        if (degrees == MINUS_ZERO) {
+            return String.format(Locale.getDefault(), "-%d\u00B0", 0);
+        }
+        return String.format(Locale.getDefault(), "%d\u00B0", degrees);
+    }
+
+    private static int readShort(byte[] data, int offset) {
+        return (short) (((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff));
+    }
+
+    private static long readLong(byte[] data, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (data[offset + i] & 0xff);
+        }
+        return value;
+    }
+}
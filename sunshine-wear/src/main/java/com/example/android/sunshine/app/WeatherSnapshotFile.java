@@ -0,0 +1,154 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * The last weather the watch face showed, kept in a small file so a new engine can show it on
+ * its first frame instead of waiting for the phone.
+ *
+ * The file is read with a single read, and the icon is stored as raw pixels so it doesn't need
+ * decoding:
+ * <pre>
+ *   int    version
+ *   short  payload length, then the payload as the phone sent it
+ *   short  icon width, icon height, both 0 if there is no icon
+ *   width * height * 4 bytes of ARGB_8888 pixels
+ * </pre>
+ */
+class WeatherSnapshotFile {
+    private static final String TAG = "sunshine-wear";
+
+    private static final String FILE_NAME = "weather_snapshot";
+
+    private static final int VERSION = 1;
+
+    // Larger than any icon the phone sends; guards against reading a corrupt size
+    private static final int MAX_ICON_SIZE = 256;
+
+    private static final Executor sWriter = Executors.newSingleThreadExecutor();
+
+    /**
+     * The weather read back from the file.
+     */
+    static final class Snapshot {
+        final byte[] mPayload;
+        final Bitmap mIcon;
+
+        Snapshot(byte[] payload, Bitmap icon) {
+            mPayload = payload;
+            mIcon = icon;
+        }
+    }
+
+    private WeatherSnapshotFile() {
+    }
+
+    static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Writes the snapshot on a background thread.  The icon must not be modified afterwards.
+     */
+    static void save(final Context context, final byte[] payload, final Bitmap icon) {
+        sWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write(getFile(context), payload, icon);
+                } catch (IOException e) {
+                    Log.w(TAG, "Weather snapshot not saved", e);
+                }
+            }
+        });
+    }
+
+    static void write(File file, byte[] payload, Bitmap icon) throws IOException {
+        int width = icon != null ? icon.getWidth() : 0;
+        int height = icon != null ? icon.getHeight() : 0;
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 2 + payload.length + 4 + width * height * 4);
+        buffer.putInt(VERSION);
+        buffer.putShort((short) payload.length);
+        buffer.put(payload);
+        buffer.putShort((short) width);
+        buffer.putShort((short) height);
+        if (icon != null) {
+            Bitmap pixels = icon.getConfig() == Bitmap.Config.ARGB_8888
+                    ? icon : icon.copy(Bitmap.Config.ARGB_8888, false);
+            pixels.copyPixelsToBuffer(buffer);
+        }
+
+        // Replace the file in one rename, so a reader never sees half of it
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(buffer.array());
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Can't rename " + temp);
+        }
+    }
+
+    /**
+     * @return the snapshot, or null if there is none or it can't be read
+     */
+    static Snapshot load(File file) {
+        byte[] data;
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                data = new byte[(int) file.length()];
+                int read = 0;
+                while (read < data.length) {
+                    int count = in.read(data, read, data.length - read);
+                    if (count < 0) {
+                        return null;
+                    }
+                    read += count;
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // No snapshot yet
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        try {
+            if (buffer.getInt() != VERSION) {
+                return null;
+            }
+            byte[] payload = new byte[buffer.getShort() & 0xffff];
+            buffer.get(payload);
+            int width = buffer.getShort();
+            int height = buffer.getShort();
+            Bitmap icon = null;
+            if (width > 0 && height > 0 && width <= MAX_ICON_SIZE && height <= MAX_ICON_SIZE) {
+                if (buffer.remaining() < width * height * 4) {
+                    return null;
+                }
+                icon = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                icon.copyPixelsFromBuffer(buffer);
+            }
+            return new Snapshot(payload, icon);
+        } catch (RuntimeException e) {
+            // Cut short or not a snapshot
+            Log.w(TAG, "Ignoring a bad weather snapshot", e);
+            return null;
+        }
+    }
+}